@@ -0,0 +1,300 @@
+package org.example.cache;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.embedding.onnx.bgesmallenv15q.BgeSmallEnV15QuantizedEmbeddingModel;
+import dev.langchain4j.store.embedding.CosineSimilarity;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.entity.Bot;
+import org.example.model.entity.Session;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers to first-turn questions of {@code OFFICIAL} bots, so that the same opening question asked thousands of
+ * times goes to the provider once.
+ * <p>
+ * The exact tier is keyed by bot, prompt version (a hash of prompt, model and temperature, so editing the bot
+ * retires its old answers), the session's max tokens and the normalized message. The semantic tier compares the
+ * message embedding with the cached questions of the same bot and version and answers when the cosine
+ * similarity reaches {@code semantic.threshold}. It uses the application's langchain4j {@link EmbeddingModel}
+ * bean if there is one, otherwise the in-process BGE small model. That fallback is trained on English only, so
+ * for other languages the semantic tier should be given a multilingual {@link EmbeddingModel} bean or left off.
+ * The message is embedded only after the exact tier missed.
+ */
+@Slf4j
+@Component
+public class ResponseCache {
+
+    public static final String EXACT = "exact";
+    public static final String SEMANTIC = "semantic";
+
+    /**
+     * Where a first-turn message would be cached, computed once for the lookup and the store after a miss.
+     */
+    public final class Lookup {
+
+        private final String partition;
+        private final String exactKey;
+        private final String normalized;
+        private Embedding embedding;
+        private boolean embedded;
+
+        private Lookup(String partition, String normalized) {
+            this.partition = partition;
+            this.exactKey = partition + ":" + normalized;
+            this.normalized = normalized;
+        }
+
+        /**
+         * The message embedding, or null when the semantic tier is off or embedding failed. Computed on first use.
+         */
+        synchronized Embedding embedding() {
+            if (!embedded) {
+                embedded = true;
+                if (semanticEnabled) {
+                    try {
+                        embedding = embeddingModel.embed(normalized).content();
+                    } catch (RuntimeException e) {
+                        log.warn("Embedding the message for the response cache failed: {}", e.getMessage());
+                    }
+                }
+            }
+            return embedding;
+        }
+    }
+
+    public record Hit(String content, String tier) {
+    }
+
+    private record Answer(String content, long expiresAt) {
+    }
+
+    private record SemanticAnswer(Embedding question, String content, long expiresAt) {
+    }
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final boolean semanticEnabled;
+    private final double threshold;
+    private final int maxPerPartition;
+    private final BigDecimal chargeRatio;
+    private final int replayChunkChars;
+    private final long replayIntervalMillis;
+
+    private final EmbeddingModel embeddingModel;
+    private final Map<String, Answer> exact;
+    private final Map<String, Deque<SemanticAnswer>> semantic = new ConcurrentHashMap<>();
+
+    private final MeterRegistry meterRegistry;
+    private final Counter misses;
+
+    public ResponseCache(ObjectProvider<EmbeddingModel> embeddingModels,
+                         MeterRegistry meterRegistry,
+                         @Value("${response-cache.enabled:false}") boolean enabled,
+                         @Value("${response-cache.max-entries:10000}") int maxEntries,
+                         @Value("${response-cache.ttl-minutes:1440}") long ttlMinutes,
+                         @Value("${response-cache.semantic.enabled:false}") boolean semanticEnabled,
+                         @Value("${response-cache.semantic.threshold:0.95}") double threshold,
+                         @Value("${response-cache.semantic.max-per-bot:1000}") int maxPerPartition,
+                         @Value("${response-cache.charge-ratio:0.2}") BigDecimal chargeRatio,
+                         @Value("${response-cache.replay.chunk-chars:6}") int replayChunkChars,
+                         @Value("${response-cache.replay.chars-per-second:120}") int replayCharsPerSecond) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MINUTES.toNanos(ttlMinutes);
+        this.semanticEnabled = enabled && semanticEnabled;
+        this.threshold = threshold;
+        this.maxPerPartition = maxPerPartition;
+        this.chargeRatio = chargeRatio;
+        this.replayChunkChars = Math.max(1, replayChunkChars);
+        this.replayIntervalMillis = Math.max(1, 1000L * this.replayChunkChars / Math.max(1, replayCharsPerSecond));
+        this.meterRegistry = meterRegistry;
+        // 只有开启语义缓存时才加载向量模型
+        this.embeddingModel = this.semanticEnabled
+                ? embeddingModels.getIfAvailable(BgeSmallEnV15QuantizedEmbeddingModel::new) : null;
+        this.exact = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Answer> eldest) {
+                return size() > ResponseCache.this.maxEntries;
+            }
+        };
+        this.misses = Counter.builder("response.cache.lookups")
+                .description("First-turn answers looked up in the response cache")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("response.cache.entries", this, cache -> cache.size())
+                .description("Cached first-turn answers (exact tier)")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns where {@code message} would be cached, or null when the cache does not apply to the session's bot.
+     */
+    public Lookup lookupFor(Session session, String message) {
+        Bot bot = session.getBot();
+        if (!enabled || bot.getBotType() != Bot.BotType.OFFICIAL || message == null || message.isBlank()) {
+            return null;
+        }
+        String partition = bot.getBotId() + ":" + promptVersion(bot) + ":" + session.getMaxTokens();
+        return new Lookup(partition, normalize(message));
+    }
+
+    public Hit get(Lookup lookup) {
+        long now = System.nanoTime();
+        Answer answer;
+        synchronized (exact) {
+            answer = exact.get(lookup.exactKey);
+            if (answer != null && answer.expiresAt() - now < 0) {
+                exact.remove(lookup.exactKey);
+                answer = null;
+            }
+        }
+        if (answer != null) {
+            return hit(answer.content(), EXACT);
+        }
+        Deque<SemanticAnswer> candidates = semantic.get(lookup.partition);
+        Embedding embedding = candidates != null ? lookup.embedding() : null;
+        if (embedding != null) {
+            SemanticAnswer best = null;
+            double bestScore = threshold;
+            synchronized (candidates) {
+                for (SemanticAnswer candidate : candidates) {
+                    if (candidate.expiresAt() - now < 0) {
+                        continue;
+                    }
+                    double score = CosineSimilarity.between(embedding, candidate.question());
+                    if (score >= bestScore) {
+                        best = candidate;
+                        bestScore = score;
+                    }
+                }
+            }
+            if (best != null) {
+                return hit(best.content(), SEMANTIC);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Stores a complete upstream answer for the looked-up message.
+     */
+    public void put(Lookup lookup, String content) {
+        if (content == null || content.isEmpty()) {
+            return;
+        }
+        long expiresAt = System.nanoTime() + ttlNanos;
+        synchronized (exact) {
+            exact.put(lookup.exactKey, new Answer(content, expiresAt));
+        }
+        Embedding embedding = lookup.embedding();
+        if (embedding == null) {
+            return;
+        }
+        Deque<SemanticAnswer> candidates = semantic.computeIfAbsent(lookup.partition, p -> new ArrayDeque<>());
+        synchronized (candidates) {
+            long now = System.nanoTime();
+            candidates.removeIf(candidate -> candidate.expiresAt() - now < 0);
+            candidates.addLast(new SemanticAnswer(embedding, content, expiresAt));
+            while (candidates.size() > maxPerPartition) {
+                candidates.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Drops every answer of the bot, called when it is edited or deleted.
+     */
+    public void invalidateBot(Long botId) {
+        String prefix = botId + ":";
+        synchronized (exact) {
+            exact.keySet().removeIf(key -> key.startsWith(prefix));
+        }
+        semantic.keySet().removeIf(partition -> partition.startsWith(prefix));
+    }
+
+    /**
+     * Part of the normal chat cost a cache hit is charged.
+     */
+    public BigDecimal getChargeRatio() {
+        return chargeRatio;
+    }
+
+    public long getReplayIntervalMillis() {
+        return replayIntervalMillis;
+    }
+
+    /**
+     * Splits a cached answer into the deltas it is replayed as.
+     */
+    public List<String> replayChunks(String content) {
+        List<String> chunks = new ArrayList<>(content.length() / replayChunkChars + 1);
+        int start = 0;
+        while (start < content.length()) {
+            int end = start;
+            for (int i = 0; i < replayChunkChars && end < content.length(); i++) {
+                end = content.offsetByCodePoints(end, 1);
+            }
+            chunks.add(content.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private int size() {
+        synchronized (exact) {
+            return exact.size();
+        }
+    }
+
+    private Hit hit(String content, String tier) {
+        Counter.builder("response.cache.lookups")
+                .description("First-turn answers looked up in the response cache")
+                .tag("result", tier)
+                .register(meterRegistry)
+                .increment();
+        return new Hit(content, tier);
+    }
+
+    // 大小写、首尾空白、连续空白和结尾标点不影响命中
+    static String normalize(String message) {
+        String normalized = message.strip().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        return normalized.replaceAll("[\\s?!.。？！~～]+$", "");
+    }
+
+    private static String promptVersion(Bot bot) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bot.getPrompt().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(bot.getModel().getModelId()).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(String.valueOf(bot.getTemperature()).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest(), 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -93,21 +93,23 @@ public class DatabaseInitializer {
 
     public void createOfficialBots() {
         createModelAndBot("gpt-3.5-turbo", "GPT-3.5-Turbo", "https://xiaoai.plus/v1/chat/completions",
-                "sk-WXMk631iKpu1J2Ql6GnCVLRt2YwOeLXALEqx6X1BmPuIMsRg", 1);
+                "sk-WXMk631iKpu1J2Ql6GnCVLRt2YwOeLXALEqx6X1BmPuIMsRg", 1, 16385);
         createModelAndBot("gpt-4o", "GPT-4O", "https://xiaoai.plus/v1/chat/completions",
-                "sk-WXMk631iKpu1J2Ql6GnCVLRt2YwOeLXALEqx6X1BmPuIMsRg", 6);
+                "sk-WXMk631iKpu1J2Ql6GnCVLRt2YwOeLXALEqx6X1BmPuIMsRg", 6, 128000);
         createModelAndBot("deepseek-ai/DeepSeek-V3", "DeepSeek-V3", "https://api.siliconflow.cn/v1/chat/completions",
-                "sk-ejnacqjmzqfhqduzfhzzitmonumpzqnlnpszzpwowtzgaery", 3);
+                "sk-ejnacqjmzqfhqduzfhzzitmonumpzqnlnpszzpwowtzgaery", 3, 64000);
         createModelAndBot("deepseek-ai/DeepSeek-R1", "DeepSeek-R1", "https://api.siliconflow.cn/v1/chat/completions",
-                "sk-ejnacqjmzqfhqduzfhzzitmonumpzqnlnpszzpwowtzgaery", 10);
+                "sk-ejnacqjmzqfhqduzfhzzitmonumpzqnlnpszzpwowtzgaery", 10, 64000);
     }
 
-    private void createModelAndBot(String modelName, String botName, String apiUrl, String apiKey, Integer costRate) {
+    private void createModelAndBot(String modelName, String botName, String apiUrl, String apiKey, Integer costRate,
+                                   Integer contextWindow) {
         Model model = new Model();
         model.setModelName(modelName);
         model.setApiUrl(apiUrl);
         model.setApiKey(apiKey);
         model.setCostRate(costRate);
+        model.setContextWindow(contextWindow);
         model.setCreatedAt(Timestamp.from(Instant.now()));
         model.setUpdatedAt(Timestamp.from(Instant.now()));
         model = modelRepository.save(model);
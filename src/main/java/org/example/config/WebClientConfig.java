@@ -0,0 +1,28 @@
+package org.example.config;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+
+import java.time.Duration;
+
+@Configuration
+public class WebClientConfig {
+
+    // 响应式聊天接口使用的非阻塞上游客户端，超时沿用 okhttp 的配置
+    @Bean
+    public WebClient llmWebClient(WebClient.Builder builder,
+                                  @Value("${okhttp.connect-timeout-seconds}") int connectTimeout,
+                                  @Value("${okhttp.read-timeout-seconds}") int readTimeout) {
+        HttpClient httpClient = HttpClient.create()
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout * 1000)
+                .responseTimeout(Duration.ofSeconds(readTimeout));
+        return builder
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+}
@@ -1,16 +1,39 @@
 package org.example.config;
 
+import lombok.RequiredArgsConstructor;
+import org.example.ratelimit.RateLimitInterceptor;
+import org.example.security.CurrentUserArgumentResolver;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
+import java.util.List;
+
 @Configuration
+@RequiredArgsConstructor
 public class WebConfig implements WebMvcConfigurer {
 
+    private final RateLimitInterceptor rateLimitInterceptor;
+    private final CurrentUserArgumentResolver currentUserArgumentResolver;
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
                 .allowedOrigins("*")
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS");
     }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // 这些接口都会消耗上游模型额度，按用户限速
+        registry.addInterceptor(rateLimitInterceptor)
+                .addPathPatterns("/bot/chat", "/bot/response", "/bot/response/**", "/bot/predict");
+    }
+
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(currentUserArgumentResolver);
+    }
 }
@@ -0,0 +1,217 @@
+package org.example.context;
+
+import com.google.gson.JsonPrimitive;
+import lombok.RequiredArgsConstructor;
+import org.example.exception.ApiException;
+import org.example.model.entity.ChatHistory;
+import org.example.model.entity.Model;
+import org.example.model.entity.Session;
+import org.example.model.entity.SessionSummary;
+import org.example.repository.ChatHistoryRepository;
+import org.example.repository.SessionSummaryRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the {@code messages} array of a chat request from a token budget instead of a fixed number of rows:
+ * the bot prompt, then as many of the most recent turns as fit in the model's context window minus the
+ * session's {@code maxTokens} reserved for the reply. For bots with {@code summarizeHistory} on, the session's
+ * rolling summary (see {@link SessionSummarizer}) goes in as a second system message and only the turns after it
+ * are sent verbatim.
+ * <p>
+ * Active sessions are served from {@link SessionContextCache}; the database is only read to fill the cache
+ * or when the cached turns do not reach back far enough.
+ */
+@Component
+@RequiredArgsConstructor
+public class ContextWindowBuilder {
+
+    private static final String SUMMARY_HEADER = "Summary of the earlier conversation:\n";
+    private static final int SUMMARY_HEADER_TOKENS = 8;
+
+    private final ChatHistoryRepository chatHistoryRepository;
+    private final TokenCounter tokenCounter;
+    private final SessionSummaryRepository sessionSummaryRepository;
+    private final SessionContextCache sessionContextCache;
+
+    @Value("${context.page-size:50}")
+    private int pageSize;
+
+    @Value("${context.max-messages:500}")
+    private int maxMessages;
+
+    /**
+     * The serialized {@code messages} array to send and the prompt tokens it costs. {@code firstTurn} is true
+     * when the whole history is the single message being answered.
+     */
+    public record Context(String messagesJson, int promptTokens, boolean firstTurn) {
+    }
+
+    private record Packed(List<SessionContextCache.Fragment> turns, boolean overBudget, boolean exhausted) {
+    }
+
+    public Context build(Session session, Long lastMessageId) {
+        SessionContextCache.Entry entry = sessionContextCache.get(session.getSessionId());
+        if (entry == null) {
+            // 加载期间会话若被失效或追加了消息，本次照常使用加载结果，但不放进缓存
+            long stamp = sessionContextCache.stamp(session.getSessionId());
+            entry = load(session);
+            sessionContextCache.put(session.getSessionId(), stamp, entry);
+        }
+        Model model = session.getBot().getModel();
+        int budget = model.getContextWindow() - session.getMaxTokens() - TokenCounter.REPLY_PRIMING;
+        String prompt = entry.getSession().getBot().getPrompt();
+        int base = entry.getPromptTokens();
+
+        SessionSummary summary = entry.getSummary();
+        if (summary != null && lastMessageId != null && summary.getCoveredUntilId() >= lastMessageId) {
+            summary = null;
+        }
+        long coveredUntil = 0;
+        if (summary != null) {
+            coveredUntil = summary.getCoveredUntilId();
+            base += summary.getTokenCount() + TokenCounter.MESSAGE_OVERHEAD + SUMMARY_HEADER_TOKENS;
+        }
+
+        int available = budget - base;
+        long floor = coveredUntil;
+        Packed packed = entry.read(fragments -> pack(fragments, lastMessageId, floor, available));
+        boolean whole = packed.exhausted();
+        if (packed.exhausted() && !entry.isComplete()) {
+            // 缓存里的消息不够填满预算，回到数据库按页往前取
+            packed = packFromDatabase(session, model, lastMessageId, floor, available);
+            whole = packed.exhausted();
+        }
+        if (packed.turns().isEmpty() && packed.overBudget()) {
+            throw new ApiException("Message does not fit in the model's context window, shorten it or lower max tokens",
+                    HttpStatus.BAD_REQUEST);
+        }
+
+        StringBuilder messages = new StringBuilder(256);
+        messages.append("[{\"role\":\"system\",\"content\":").append(jsonString(prompt)).append('}');
+        if (summary != null) {
+            messages.append(",{\"role\":\"system\",\"content\":")
+                    .append(jsonString(SUMMARY_HEADER + summary.getContent())).append('}');
+        }
+        int used = base;
+        for (int i = packed.turns().size() - 1; i >= 0; i--) {
+            SessionContextCache.Fragment fragment = packed.turns().get(i);
+            messages.append(',').append(fragment.json());
+            used += fragment.tokens();
+        }
+        messages.append(']');
+        boolean firstTurn = whole && entry.getSummary() == null && packed.turns().size() == 1;
+        return new Context(messages.toString(), used + TokenCounter.REPLY_PRIMING, firstTurn);
+    }
+
+    /**
+     * Token count of a stored message, computed on the fly for rows saved before counts were recorded.
+     */
+    public int tokensOf(Model model, ChatHistory chatHistory) {
+        Integer stored = chatHistory.getTokenCount();
+        int tokens = stored != null ? stored : tokenCounter.count(model.getModelName(), chatHistory.getContent());
+        return tokens + TokenCounter.MESSAGE_OVERHEAD;
+    }
+
+    // 从最新一条往前取，直到预算用完；返回的 turns 为从新到旧
+    private Packed pack(List<SessionContextCache.Fragment> fragments, Long lastMessageId, long coveredUntil,
+                        int available) {
+        List<SessionContextCache.Fragment> turns = new ArrayList<>();
+        int used = 0;
+        for (int i = fragments.size() - 1; i >= 0; i--) {
+            SessionContextCache.Fragment fragment = fragments.get(i);
+            if (lastMessageId != null && fragment.id() > lastMessageId) {
+                continue;
+            }
+            if (fragment.id() <= coveredUntil || turns.size() >= maxMessages) {
+                return new Packed(turns, false, false);
+            }
+            if (used + fragment.tokens() > available) {
+                return new Packed(turns, true, false);
+            }
+            used += fragment.tokens();
+            turns.add(fragment);
+        }
+        return new Packed(turns, false, true);
+    }
+
+    private Packed packFromDatabase(Session session, Model model, Long lastMessageId, long coveredUntil,
+                                    int available) {
+        List<SessionContextCache.Fragment> turns = new ArrayList<>();
+        int used = 0;
+        int page = 0;
+        while (true) {
+            List<ChatHistory> rows = chatHistoryRepository.findRecentBySessionBeforeMessage(
+                    session.getSessionId(), lastMessageId, PageRequest.of(page++, pageSize));
+            for (ChatHistory row : rows) {
+                if (row.getId() <= coveredUntil || turns.size() >= maxMessages) {
+                    return new Packed(turns, false, false);
+                }
+                SessionContextCache.Fragment fragment = toFragment(model, row);
+                if (used + fragment.tokens() > available) {
+                    return new Packed(turns, true, false);
+                }
+                used += fragment.tokens();
+                turns.add(fragment);
+            }
+            if (rows.size() < pageSize) {
+                return new Packed(turns, false, true);
+            }
+        }
+    }
+
+    // 缓存未命中：读取摘要和足够填满整个上下文窗口的最近消息
+    private SessionContextCache.Entry load(Session session) {
+        Model model = session.getBot().getModel();
+        SessionSummary summary = Boolean.TRUE.equals(session.getBot().getSummarizeHistory())
+                ? sessionSummaryRepository.findBySessionId(session.getSessionId()) : null;
+        long coveredUntil = summary != null ? summary.getCoveredUntilId() : 0;
+        int window = model.getContextWindow();
+
+        List<SessionContextCache.Fragment> newestFirst = new ArrayList<>();
+        boolean complete = false;
+        int tokens = 0;
+        int page = 0;
+        loading:
+        while (true) {
+            List<ChatHistory> rows = chatHistoryRepository.findRecentBySessionBeforeMessage(
+                    session.getSessionId(), Long.MAX_VALUE, PageRequest.of(page++, pageSize));
+            for (ChatHistory row : rows) {
+                if (row.getId() <= coveredUntil) {
+                    complete = true;
+                    break loading;
+                }
+                if (tokens >= window || newestFirst.size() >= maxMessages) {
+                    break loading;
+                }
+                SessionContextCache.Fragment fragment = toFragment(model, row);
+                tokens += fragment.tokens();
+                newestFirst.add(fragment);
+            }
+            if (rows.size() < pageSize) {
+                complete = true;
+                break;
+            }
+        }
+        List<SessionContextCache.Fragment> fragments = new ArrayList<>(newestFirst.size() + 16);
+        for (int i = newestFirst.size() - 1; i >= 0; i--) {
+            fragments.add(newestFirst.get(i));
+        }
+        int promptTokens = tokenCounter.countMessage(model.getModelName(), session.getBot().getPrompt());
+        return new SessionContextCache.Entry(session, summary, promptTokens, fragments, complete, window);
+    }
+
+    private SessionContextCache.Fragment toFragment(Model model, ChatHistory row) {
+        return new SessionContextCache.Fragment(row.getId(), SessionContextCache.serialize(row),
+                tokensOf(model, row));
+    }
+
+    private static String jsonString(String value) {
+        return new JsonPrimitive(value).toString();
+    }
+}
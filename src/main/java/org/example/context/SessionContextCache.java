@@ -0,0 +1,290 @@
+package org.example.context;
+
+import com.google.gson.JsonObject;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.entity.ChatHistory;
+import org.example.model.entity.Session;
+import org.example.model.entity.SessionSummary;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * Recent conversation context of active sessions: the {@link Session} (with its bot and model), the rolling
+ * summary if any, and the latest messages already serialized as JSON message objects with their token
+ * counts. {@code chat()} and the assistant save path append to it, so building a chat request for an active
+ * session reads nothing from the database.
+ * <p>
+ * Entries idle for {@code idle-seconds} are dropped, and the least recently used ones go first once the cached
+ * fragments exceed {@code max-bytes}. Anything that changes what a session's prompt would look like (bot or
+ * model update, new summary, max tokens) must {@code invalidate} it.
+ * <p>
+ * A loader takes a {@link #stamp(Long)} before reading the database and hands it to {@link #put}; the entry is
+ * only installed if no invalidate or append touched the session in between, so a slow load can neither bring
+ * back an invalidated entry nor miss a message saved while it was reading.
+ */
+@Slf4j
+@Component
+public class SessionContextCache {
+
+    /**
+     * One serialized message.
+     */
+    public record Fragment(long id, String json, int tokens) {
+    }
+
+    public static class Entry {
+        private final Session session;
+        private final SessionSummary summary;
+        private final int promptTokens;
+        private final List<Fragment> fragments;
+        private final int maxTokens;
+        private boolean complete;
+        private int tokens;
+        private long bytes;
+        private volatile long lastAccess = System.nanoTime();
+
+        Entry(Session session, SessionSummary summary, int promptTokens, List<Fragment> fragments, boolean complete,
+              int maxTokens) {
+            this.session = session;
+            this.summary = summary;
+            this.promptTokens = promptTokens;
+            this.fragments = fragments;
+            this.complete = complete;
+            this.maxTokens = maxTokens;
+            for (Fragment fragment : fragments) {
+                tokens += fragment.tokens();
+                bytes += sizeOf(fragment);
+            }
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        public SessionSummary getSummary() {
+            return summary;
+        }
+
+        /**
+         * Tokens of the bot prompt as a system message.
+         */
+        public int getPromptTokens() {
+            return promptTokens;
+        }
+
+        /**
+         * True when the fragments reach back to the start of the history (or to the summary).
+         */
+        public synchronized boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Runs {@code reader} on the fragments (oldest first) under the entry's lock.
+         */
+        public synchronized <T> T read(Function<List<Fragment>, T> reader) {
+            return reader.apply(fragments);
+        }
+
+        // 超出上限时丢掉最早的片段，此后条目不再完整
+        synchronized long append(Fragment fragment) {
+            if (!fragments.isEmpty() && fragments.get(fragments.size() - 1).id() >= fragment.id()) {
+                return 0;
+            }
+            fragments.add(fragment);
+            tokens += fragment.tokens();
+            long delta = sizeOf(fragment);
+            while (tokens > maxTokens && fragments.size() > 1) {
+                Fragment dropped = fragments.remove(0);
+                tokens -= dropped.tokens();
+                delta -= sizeOf(dropped);
+                complete = false;
+            }
+            bytes += delta;
+            return delta;
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+
+        private static long sizeOf(Fragment fragment) {
+            return 2L * fragment.json().length() + 48;
+        }
+    }
+
+    private static final int STAMP_STRIPES = 1024;
+
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    // 按会话 id 分段的修改计数，不同会话偶尔共用一段只会让 put 多放弃几次
+    private final AtomicLongArray stamps = new AtomicLongArray(STAMP_STRIPES);
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final ScheduledExecutorService sweeper;
+    private final long maxBytes;
+    private final long idleNanos;
+
+    public SessionContextCache(@Value("${context.cache.max-bytes:67108864}") long maxBytes,
+                               @Value("${context.cache.idle-seconds:1800}") long idleSeconds) {
+        this.maxBytes = maxBytes;
+        this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-context-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::sweep, 30, 30, TimeUnit.SECONDS);
+    }
+
+    public Entry get(Long sessionId) {
+        Entry entry = entries.get(sessionId);
+        if (entry != null) {
+            entry.lastAccess = System.nanoTime();
+        }
+        return entry;
+    }
+
+    /**
+     * Current modification stamp of the session, to be taken before loading its entry.
+     */
+    public long stamp(Long sessionId) {
+        return stamps.get(stripe(sessionId));
+    }
+
+    /**
+     * Installs {@code entry} unless the session was invalidated or appended to since {@code stamp} was taken.
+     *
+     * @return whether the entry was installed
+     */
+    public boolean put(Long sessionId, long stamp, Entry entry) {
+        long[] replaced = {0};
+        Entry installed = entries.compute(sessionId, (id, previous) -> {
+            if (stamps.get(stripe(id)) != stamp) {
+                return previous;
+            }
+            replaced[0] = previous != null ? previous.getBytes() : 0;
+            return entry;
+        });
+        if (installed != entry) {
+            return false;
+        }
+        if (totalBytes.addAndGet(entry.getBytes() - replaced[0]) > maxBytes) {
+            sweep();
+        }
+        return true;
+    }
+
+    /**
+     * Appends a just-saved message to its session's entry, if the session is cached.
+     */
+    public void append(ChatHistory chatHistory, int tokens) {
+        Fragment fragment = new Fragment(chatHistory.getId(), serialize(chatHistory), tokens);
+        long[] delta = {0};
+        // 与 put 在同一把锁下计数，正在加载的条目要么看到这条消息，要么放弃安装
+        entries.compute(chatHistory.getSession().getSessionId(), (id, entry) -> {
+            stamps.incrementAndGet(stripe(id));
+            if (entry != null) {
+                delta[0] = entry.append(fragment);
+            }
+            return entry;
+        });
+        if (totalBytes.addAndGet(delta[0]) > maxBytes) {
+            sweep();
+        }
+    }
+
+    public void invalidate(Long sessionId) {
+        long[] removed = {0};
+        entries.compute(sessionId, (id, entry) -> {
+            stamps.incrementAndGet(stripe(id));
+            if (entry != null) {
+                removed[0] = entry.getBytes();
+            }
+            return null;
+        });
+        totalBytes.addAndGet(-removed[0]);
+    }
+
+    public void invalidateBot(Long botId) {
+        bumpAll();
+        entries.forEach((sessionId, entry) -> {
+            if (entry.getSession().getBot().getBotId().equals(botId)) {
+                invalidate(sessionId);
+            }
+        });
+    }
+
+    public void invalidateModel(Long modelId) {
+        bumpAll();
+        entries.forEach((sessionId, entry) -> {
+            if (entry.getSession().getBot().getModel().getModelId().equals(modelId)) {
+                invalidate(sessionId);
+            }
+        });
+    }
+
+    // 正在加载的会话无法按 bot 或模型区分，只能全部作废
+    private void bumpAll() {
+        for (int i = 0; i < STAMP_STRIPES; i++) {
+            stamps.incrementAndGet(i);
+        }
+    }
+
+    private static int stripe(Long sessionId) {
+        return (int) (sessionId & (STAMP_STRIPES - 1));
+    }
+
+    static String serialize(ChatHistory chatHistory) {
+        JsonObject chatMessage = new JsonObject();
+        chatMessage.addProperty("role", chatHistory.getSenderRole().toString().toLowerCase());
+        chatMessage.addProperty("content", chatHistory.getContent());
+        return chatMessage.toString();
+    }
+
+    private synchronized void sweep() {
+        long now = System.nanoTime();
+        entries.forEach((sessionId, entry) -> {
+            if (now - entry.lastAccess > idleNanos) {
+                invalidate(sessionId);
+            }
+        });
+        // 重新求和，修正并发追加与失效交错造成的计数偏差
+        long sum = 0;
+        for (Entry entry : entries.values()) {
+            sum += entry.getBytes();
+        }
+        totalBytes.set(sum);
+        if (sum <= maxBytes) {
+            return;
+        }
+        // 仍然超出内存上限时按最近使用时间淘汰，腾出 1/4 的空间避免频繁清理
+        long target = maxBytes - maxBytes / 4;
+        List<long[]> byAge = new ArrayList<>();
+        entries.forEach((sessionId, entry) -> byAge.add(new long[]{sessionId, entry.lastAccess}));
+        byAge.sort(Comparator.comparingLong(e -> e[1]));
+        for (long[] oldest : byAge) {
+            if (totalBytes.get() <= target) {
+                break;
+            }
+            invalidate(oldest[0]);
+        }
+        log.debug("Session context cache swept, {} sessions, {} bytes", entries.size(), totalBytes.get());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
+}
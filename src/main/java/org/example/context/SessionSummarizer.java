@@ -0,0 +1,248 @@
+package org.example.context;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.entity.ChatHistory;
+import org.example.model.entity.Model;
+import org.example.model.entity.Session;
+import org.example.model.entity.SessionSummary;
+import org.example.repository.ChatHistoryRepository;
+import org.example.repository.SessionSummaryRepository;
+import org.example.stream.ChatCompletionParser;
+import org.example.upstream.UpstreamGateway;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a rolling summary per session for bots with {@code summarizeHistory} on. Once the messages after the
+ * summary exceed {@code trigger-tokens}, everything but the most recent {@code keep-recent-tokens} is folded
+ * into the summary in the background, so the prompt stays about the same size however long the session gets.
+ */
+@Slf4j
+@Component
+public class SessionSummarizer {
+
+    private static final String SUMMARY_PROMPT = """
+            You maintain a running summary of a conversation between a user and an AI assistant.
+            Merge the previous summary and the new messages into one updated summary.
+            Keep facts, names, numbers, decisions, user preferences and open questions; drop small talk.
+            Write in the language of the conversation, in plain prose, and never address the user.
+            """;
+
+    // "Previous summary:" / "New messages:" 标题和角色前缀的余量
+    private static final int FOLD_HEADER_TOKENS = 16;
+
+    private final ChatHistoryRepository chatHistoryRepository;
+    private final SessionSummaryRepository sessionSummaryRepository;
+    private final ContextWindowBuilder contextWindowBuilder;
+    private final SessionContextCache sessionContextCache;
+    private final TokenCounter tokenCounter;
+    private final UpstreamGateway upstreamGateway;
+    private final ChatCompletionParser chatCompletionParser;
+    private final ThreadPoolExecutor executor;
+    private final Set<Long> running = ConcurrentHashMap.newKeySet();
+
+    private final int triggerTokens;
+    private final int keepRecentTokens;
+    private final int maxSummaryTokens;
+
+    public SessionSummarizer(ChatHistoryRepository chatHistoryRepository,
+                             SessionSummaryRepository sessionSummaryRepository,
+                             ContextWindowBuilder contextWindowBuilder,
+                             SessionContextCache sessionContextCache,
+                             TokenCounter tokenCounter,
+                             UpstreamGateway upstreamGateway,
+                             ChatCompletionParser chatCompletionParser,
+                             @Value("${summary.trigger-tokens:3000}") int triggerTokens,
+                             @Value("${summary.keep-recent-tokens:1000}") int keepRecentTokens,
+                             @Value("${summary.max-tokens:512}") int maxSummaryTokens,
+                             @Value("${summary.threads:2}") int threads,
+                             @Value("${summary.queue-capacity:200}") int queueCapacity) {
+        this.chatHistoryRepository = chatHistoryRepository;
+        this.sessionSummaryRepository = sessionSummaryRepository;
+        this.contextWindowBuilder = contextWindowBuilder;
+        this.sessionContextCache = sessionContextCache;
+        this.tokenCounter = tokenCounter;
+        this.upstreamGateway = upstreamGateway;
+        this.chatCompletionParser = chatCompletionParser;
+        this.triggerTokens = triggerTokens;
+        this.keepRecentTokens = keepRecentTokens;
+        this.maxSummaryTokens = maxSummaryTokens;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "session-summary-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Schedules a summary refresh for {@code session} if its bot uses summaries. At most one refresh per
+     * session runs at a time; when the queue is full the refresh is skipped and retried after the next reply.
+     */
+    public void refreshLater(Session session) {
+        if (!Boolean.TRUE.equals(session.getBot().getSummarizeHistory())
+                || !running.add(session.getSessionId())) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    refresh(session);
+                } catch (RuntimeException | IOException e) {
+                    log.warn("Summary refresh failed for session {}: {}", session.getSessionId(), e.getMessage());
+                } finally {
+                    running.remove(session.getSessionId());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.remove(session.getSessionId());
+        }
+    }
+
+    private void refresh(Session session) throws IOException {
+        Model model = session.getBot().getModel();
+        SessionSummary summary = sessionSummaryRepository.findBySessionId(session.getSessionId());
+        long coveredUntil = summary != null ? summary.getCoveredUntilId() : 0L;
+        List<ChatHistory> tail = chatHistoryRepository.findAllBySessionAfterMessage(session.getSessionId(),
+                coveredUntil);
+
+        int total = 0;
+        for (ChatHistory message : tail) {
+            total += contextWindowBuilder.tokensOf(model, message);
+        }
+        if (total < triggerTokens) {
+            return;
+        }
+        // 最近 keep-recent-tokens 的消息保留原文，更早的并入摘要
+        int split = tail.size();
+        int kept = 0;
+        while (split > 0) {
+            int cost = contextWindowBuilder.tokensOf(model, tail.get(split - 1));
+            if (kept + cost > keepRecentTokens) {
+                break;
+            }
+            kept += cost;
+            split--;
+        }
+        if (split == 0) {
+            return;
+        }
+        // 第一次摘要或积压很多时一次请求放不下，按模型上下文窗口分几步并入，每步都落库，中途失败下次从断点继续
+        int fixed = tokenCounter.count(model.getModelName(), SUMMARY_PROMPT) + 2 * TokenCounter.MESSAGE_OVERHEAD
+                + TokenCounter.REPLY_PRIMING + FOLD_HEADER_TOKENS;
+        int from = 0;
+        while (from < split) {
+            int budget = model.getContextWindow() - maxSummaryTokens - fixed
+                    - (summary != null ? summary.getTokenCount() : 0);
+            if (budget <= 0) {
+                log.warn("Session {} summary does not fit in the context window of {}", session.getSessionId(),
+                        model.getModelName());
+                return;
+            }
+            int to = from;
+            int used = 0;
+            while (to < split) {
+                int cost = contextWindowBuilder.tokensOf(model, tail.get(to));
+                if (to > from && used + cost > budget) {
+                    break;
+                }
+                used += cost;
+                to++;
+            }
+            summary = fold(session, model, summary, tail.subList(from, to), budget);
+            if (summary == null) {
+                return;
+            }
+            from = to;
+        }
+        log.debug("Session {} summary now covers messages up to {}", session.getSessionId(),
+                summary.getCoveredUntilId());
+    }
+
+    // 把 folded 并入摘要并保存；folded 只有一条且超出预算时截掉超出的部分
+    private SessionSummary fold(Session session, Model model, SessionSummary summary, List<ChatHistory> folded,
+                                int budget) throws IOException {
+        StringBuilder input = new StringBuilder();
+        if (summary != null && !summary.getContent().isEmpty()) {
+            input.append("Previous summary:\n").append(summary.getContent()).append("\n\n");
+        }
+        input.append("New messages:\n");
+        for (ChatHistory message : folded) {
+            String text = message.getContent();
+            int cost = contextWindowBuilder.tokensOf(model, message);
+            if (cost > budget) {
+                text = text.substring(0, (int) ((long) text.length() * budget / cost));
+            }
+            input.append(message.getSenderRole().toString().toLowerCase()).append(": ")
+                    .append(text).append('\n');
+        }
+
+        String content = summarize(session, input.toString());
+        if (content == null || content.isBlank()) {
+            return null;
+        }
+        if (summary == null) {
+            summary = new SessionSummary();
+            summary.setSession(session);
+            summary.setCreatedAt(Timestamp.from(Instant.now()));
+        }
+        summary.setContent(content.trim());
+        summary.setTokenCount(tokenCounter.count(model.getModelName(), summary.getContent()));
+        summary.setCoveredUntilId(folded.get(folded.size() - 1).getId());
+        summary.setUpdatedAt(Timestamp.from(Instant.now()));
+        SessionSummary saved = sessionSummaryRepository.save(summary);
+        sessionContextCache.invalidate(session.getSessionId());
+        return saved;
+    }
+
+    private String summarize(Session session, String input) throws IOException {
+        JsonObject requestBody = new JsonObject();
+        JsonArray messages = new JsonArray();
+        JsonObject systemMessage = new JsonObject();
+        systemMessage.addProperty("role", "system");
+        systemMessage.addProperty("content", SUMMARY_PROMPT);
+        messages.add(systemMessage);
+        JsonObject userMessage = new JsonObject();
+        userMessage.addProperty("role", "user");
+        userMessage.addProperty("content", input);
+        messages.add(userMessage);
+        requestBody.add("messages", messages);
+        requestBody.addProperty("stream", false);
+        requestBody.addProperty("temperature", 0.2);
+        requestBody.addProperty("max_tokens", maxSummaryTokens);
+
+        UpstreamGateway.Exchange exchange = upstreamGateway.open(
+                upstreamGateway.reserve(session.getBot().getModel(), session.getUser()), requestBody, call -> {});
+        boolean dropped = false;
+        try {
+            return chatCompletionParser.extractMessageContent(exchange.getResponse().body().string());
+        } catch (IOException e) {
+            dropped = true;
+            throw e;
+        } finally {
+            exchange.release(dropped);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,68 @@
+package org.example.context;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts BPE tokens the way OpenAI models do: the model's own encoding when it is known (e.g. o200k for
+ * gpt-4o), cl100k for everything else, which is close enough for most other providers. Merge tables are
+ * loaded on first use and cached for the lifetime of the application. If an encoding cannot be loaded, a
+ * character-based estimate is used instead.
+ */
+@Slf4j
+@Component
+public class TokenCounter {
+
+    // 对话格式中每条消息的额外开销（role、分隔符），以及回复前的固定开销
+    public static final int MESSAGE_OVERHEAD = 4;
+    public static final int REPLY_PRIMING = 3;
+
+    private final EncodingRegistry registry = Encodings.newLazyEncodingRegistry();
+    private final Map<String, Encoding> encodings = new ConcurrentHashMap<>();
+
+    public int count(String modelName, String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        try {
+            return encodingFor(modelName).countTokensOrdinary(text);
+        } catch (RuntimeException e) {
+            log.warn("Token counting failed for model {}, using an estimate: {}", modelName, e.getMessage());
+            return estimate(text);
+        }
+    }
+
+    /**
+     * Tokens one chat message costs in the prompt, including its formatting overhead.
+     */
+    public int countMessage(String modelName, String content) {
+        return count(modelName, content) + MESSAGE_OVERHEAD;
+    }
+
+    private Encoding encodingFor(String modelName) {
+        String key = modelName != null ? modelName : "";
+        return encodings.computeIfAbsent(key, name -> registry.getEncodingForModel(name)
+                .orElseGet(() -> registry.getEncoding(EncodingType.CL100K_BASE)));
+    }
+
+    // 退化估算：英文约 4 个字符一个 token，中日韩等字符约一个字符一个 token
+    static int estimate(String text) {
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < 128) {
+                ascii++;
+            } else {
+                other++;
+            }
+        }
+        return (ascii + 3) / 4 + other;
+    }
+}
@@ -3,22 +3,20 @@ package org.example.controller;
 import dev.langchain4j.agent.tool.P;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import org.example.model.dto.authDTO.LoginRequest;
 import org.example.model.dto.authDTO.PasswordResetRequest;
 import org.example.model.dto.authDTO.RegisterRequest;
 import org.example.model.entity.User;
+import org.example.security.AuthUser;
 import org.example.service.UserService;
 import org.example.util.JwtUtil;
-import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.authentication.AuthenticationManager;
-import org.springframework.security.authentication.BadCredentialsException;
-import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.concurrent.CompletableFuture;
+
 @RestController
 @RequiredArgsConstructor
 @RequestMapping("/auth")
@@ -26,13 +24,13 @@ import org.springframework.web.bind.annotation.*;
 public class AuthController {
 
     private final UserService userService;
-    private final AuthenticationManager authenticationManager;
     private final JwtUtil jwtUtil;
 
     @PostMapping("/verification")
     @Operation(summary = "Send verification code", description = "Send verification code to email", operationId = "1")
-    public ResponseEntity<?> verification(@RequestParam String email) {
-        userService.sendVerificationCode(email);
+    public ResponseEntity<?> verification(@RequestParam String email, HttpServletRequest request) {
+        // 经过负载均衡时由 server.forward-headers-strategy 还原为真实客户端地址
+        userService.sendVerificationCode(email, request.getRemoteAddr());
         return ResponseEntity.ok("success sent to " + email);
     }
 
@@ -49,22 +47,10 @@ public class AuthController {
 
     @PostMapping("/login")
     @Operation(summary = "Login user", description = "Login user with username or email and password")
-    public ResponseEntity<?> login(@RequestBody LoginRequest loginRequest) {
-        try {
-            authenticationManager.authenticate(
-                    new UsernamePasswordAuthenticationToken(loginRequest.getUsernameOrEmail(), loginRequest.getPassword())
-            );
-        } catch (BadCredentialsException e) {
-            return new ResponseEntity<>("Incorrect username or password", HttpStatus.BAD_REQUEST);
-        }
-        UserDetails userDetails = null;
-        try {
-            userDetails = userService.loadUserByUsername(loginRequest.getUsernameOrEmail());
-        } catch (UsernameNotFoundException e) {
-            return new ResponseEntity<>("User not found", HttpStatus.BAD_REQUEST);
-        }
-        final String jwt = jwtUtil.generateToken(userDetails);
-        return ResponseEntity.ok(jwt);
+    public CompletableFuture<ResponseEntity<?>> login(@RequestBody LoginRequest loginRequest) {
+        // 密码校验在独立线程池上完成，请求线程不等待 bcrypt
+        return userService.authenticate(loginRequest.getUsernameOrEmail(), loginRequest.getPassword())
+                .thenApply(user -> ResponseEntity.ok(jwtUtil.generateToken(AuthUser.of(user))));
     }
 
     @PostMapping("/reset-password")
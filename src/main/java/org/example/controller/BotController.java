@@ -14,15 +14,15 @@ import org.example.model.entity.Bot;
 import org.example.model.entity.ChatHistory;
 import org.example.model.entity.Session;
 import org.example.model.entity.User;
-import org.example.repository.UserRepository;
+import org.example.security.CurrentUser;
 import org.example.service.BotService;
 import org.example.service.UserService;
 import org.example.service.impl.UserServiceImpl;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 
@@ -33,107 +33,109 @@ import java.util.List;
 public class BotController {
 
     private final BotService botService;
-    private final UserRepository userRepository;
 
     @PostMapping()
     @Operation(summary = "Create bot", description = "Create new bot")
-    public ResponseEntity<?> createBot(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> createBot(@CurrentUser User user,
                           @RequestBody CreateBotRequest createBotRequest) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         Bot bot = botService.createBot(user, createBotRequest);
         return ResponseEntity.ok(bot.getBotId());
     }
 
     @PostMapping("/official")
     @Operation(summary = "Create official bot", description = "Create new official bot")
-    public ResponseEntity<?> createOfficialBot(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> createOfficialBot(@CurrentUser User user,
                                        @RequestBody CreateBotRequest createBotRequest) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         Bot bot = botService.createOfficialBot(user, createBotRequest);
         return ResponseEntity.ok(bot.getBotId());
     }
 
     @PutMapping()
     @Operation(summary = "Update bot", description = "Update bot")
-    public ResponseEntity<?> updateBot(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> updateBot(@CurrentUser User user,
                           @RequestBody UpdateBotRequest updateBotRequest) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         botService.updateBot(user, updateBotRequest);
         return ResponseEntity.ok("Bot updated successfully");
     }
 
     @DeleteMapping("/{botId}")
     @Operation(summary = "Delete bot", description = "Delete bot. After deletion, the original record will also be retained")
-    public ResponseEntity<?> deleteBot(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> deleteBot(@CurrentUser User user,
                           @PathVariable Long botId) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         botService.deleteBot(user, botId);
         return ResponseEntity.ok("Bot deleted successfully");
     }
 
     @GetMapping("/{botId}")
     @Operation(summary = "Get bot", description = "Get bot by botId")
-    public ResponseEntity<?> getBot(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> getBot(@CurrentUser User user,
                                  @PathVariable Long botId) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         Bot bot = botService.getBot(user, botId);
         return ResponseEntity.ok(bot);
     }
 
     @PostMapping("/session")
     @Operation(summary = "Create session", description = "Create new session")
-    public ResponseEntity<?> createSession(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> createSession(@CurrentUser User user,
                                  @RequestParam Long botId) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         Session session = botService.createSession(user, botId);
         return ResponseEntity.ok(session.getSessionId());
     }
 
     @GetMapping("/sessions")
     @Operation(summary = "Get sessions", description = "Get sessions created by current user, with pagination")
-    public ResponseEntity<?> getSessions(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> getSessions(@CurrentUser User user,
                                  @RequestParam(defaultValue = "10") Integer limit,
                                  @RequestParam(defaultValue = "0") Integer offset) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         List<Session> sessions = botService.getSessions(user, limit, offset);
         return ResponseEntity.ok(sessions);
     }
 
     @PutMapping("/sessions/maxTokens")
     @Operation(summary = "Update session max tokens", description = "Update session max tokens")
-    public ResponseEntity<?> updateSessionMaxTokens(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> updateSessionMaxTokens(@CurrentUser User user,
                                  @RequestParam Long sessionId,
                                  @RequestParam Integer maxTokens) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         botService.updateSessionMaxTokens(user, sessionId, maxTokens);
         return ResponseEntity.ok("Session max tokens updated successfully");
     }
 
     @GetMapping("/sessions/{sessionId}")
     @Operation(summary = "Get session chat history", description = "Get session chat history by sessionId")
-    public ResponseEntity<?> getSessionChatHistory(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> getSessionChatHistory(@CurrentUser User user,
                                  @PathVariable Long sessionId) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         List<ChatHistoryResponse> chatHistories = botService.getSessionChatHistory(user, sessionId);
         return ResponseEntity.ok(chatHistories);
     }
 
     @PostMapping("/chat")
     @Operation(summary = "Chat", description = "Chat with bot")
-    public ResponseEntity<?> chat(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> chat(@CurrentUser User user,
                                   @RequestBody ChatRequest chatRequest) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         ChatHistory chatHistory = botService.chat(user, chatRequest.getSessionId(), chatRequest.getMessage());
         return ResponseEntity.ok(chatHistory.getId());
     }
 
     @GetMapping(value = "/response", produces = org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE)
-    @Operation(summary = "Get chat response stream", description = "Get chat response stream by sessionId and lastMessageId")
-    public SseEmitter getChatResponseStream(@AuthenticationPrincipal UserDetails userDetails,
+    @Operation(summary = "Get chat response stream", description = "Get chat response stream by sessionId and lastMessageId. " +
+            "Reconnecting with the Last-Event-ID header (or lastEventId parameter) resumes the running generation. " +
+            "While the model is saturated, 'queue' events carry the request's position in the wait queue")
+    public SseEmitter getChatResponseStream(@CurrentUser User user,
                                             @RequestParam Long sessionId,
-                                            @RequestParam Long lastMessageId) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
-        return botService.getChatResponseStream(user, sessionId, lastMessageId);
+                                            @RequestParam Long lastMessageId,
+                                            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventIdHeader,
+                                            @RequestParam(required = false) Long lastEventId) {
+        return botService.getChatResponseStream(user, sessionId, lastMessageId,
+                lastEventIdHeader != null ? lastEventIdHeader : lastEventId);
+    }
+
+    @GetMapping(value = "/response/reactive", produces = org.springframework.http.MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Operation(summary = "Get chat response stream (reactive)", description = "Same as /bot/response, but the upstream " +
+            "stream is relayed as a Flux with backpressure and does not hold a thread while waiting for tokens")
+    public Flux<ServerSentEvent<String>> getChatResponseFlux(@CurrentUser User user,
+                                                             @RequestParam Long sessionId,
+                                                             @RequestParam Long lastMessageId) {
+        return botService.getChatResponseFlux(user, sessionId, lastMessageId);
     }
 
     @GetMapping("/predict")
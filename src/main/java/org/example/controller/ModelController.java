@@ -6,13 +6,11 @@ import lombok.RequiredArgsConstructor;
 import org.example.model.dto.modelDTO.CreateModelRequest;
 import org.example.model.dto.modelDTO.UpdateModelRequest;
 import org.example.model.entity.Model;
-import org.example.model.entity.User;
-import org.example.repository.UserRepository;
+import org.example.security.CurrentUser;
+import org.example.security.RequestUser;
 import org.example.service.ModelService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
 @RestController
@@ -21,15 +19,13 @@ import org.springframework.web.bind.annotation.*;
 @Tag(name = "Model", description = "APIs for model")
 public class ModelController {
 
-    private final UserRepository userRepository;
     private final ModelService modelService;
 
     @PostMapping()
     @Operation(summary = "Create model", description = "Create new model")
-    public ResponseEntity<?> createModel(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> createModel(@CurrentUser RequestUser caller,
                                          @RequestBody CreateModelRequest createModelRequest) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
-        if (!user.getRole().equals(User.Role.ADMIN)) {
+        if (!caller.isAdmin()) {
             return new ResponseEntity<>("Unauthorized, only admin can create model.", HttpStatus.UNAUTHORIZED);
         }
         Model model = modelService.createModel(createModelRequest);
@@ -38,10 +34,9 @@ public class ModelController {
 
     @PutMapping()
     @Operation(summary = "Update model", description = "Update model")
-    public ResponseEntity<?> updateModel(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> updateModel(@CurrentUser RequestUser caller,
                                          @RequestBody UpdateModelRequest updateModelRequest) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
-        if (!user.getRole().equals(User.Role.ADMIN)) {
+        if (!caller.isAdmin()) {
             return new ResponseEntity<>("Unauthorized, only admin can update model.", HttpStatus.UNAUTHORIZED);
         }
         modelService.updateModel(updateModelRequest);
@@ -51,10 +46,9 @@ public class ModelController {
     @DeleteMapping("/{modelId}")
     @Operation(summary = "Delete model", description = "Delete model. Warning: This action will also delete all the related " +
             "bots and chat history, which is irreversible. Please use with caution!!!")
-    public ResponseEntity<?> deleteModel(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> deleteModel(@CurrentUser RequestUser caller,
                                          @PathVariable Long modelId) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
-        if (!user.getRole().equals(User.Role.ADMIN)) {
+        if (!caller.isAdmin()) {
             return new ResponseEntity<>("Unauthorized, only admin can delete model.", HttpStatus.UNAUTHORIZED);
         }
         modelService.deleteModel(modelId);
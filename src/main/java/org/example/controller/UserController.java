@@ -7,11 +7,10 @@ import lombok.RequiredArgsConstructor;
 import org.example.model.dto.userDTO.UpdateProfileRequest;
 import org.example.model.dto.userDTO.UserProfileResponse;
 import org.example.model.entity.User;
-import org.example.repository.UserRepository;
+import org.example.security.CurrentUser;
+import org.example.security.RequestUser;
 import org.example.service.UserService;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.annotation.AuthenticationPrincipal;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -24,13 +23,11 @@ import java.math.BigDecimal;
 public class UserController {
 
     private final UserService userService;
-    private final UserRepository userRepository;
 
     @GetMapping("/profile")
     @Operation(summary = "Get user profile", description = "Get user's own profile")
-    public ResponseEntity<?> getUserProfile(@AuthenticationPrincipal UserDetails userDetails) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
-        UserProfileResponse userProfile = userService.getUserProfile(user.getUserId());
+    public ResponseEntity<?> getUserProfile(@CurrentUser RequestUser caller) {
+        UserProfileResponse userProfile = userService.getUserProfile(caller.getUserId());
         return ResponseEntity.ok(userProfile);
     }
 
@@ -43,9 +40,8 @@ public class UserController {
 
     @PostMapping("/profile")
     @Operation(summary = "Update user profile", description = "Update user profile")
-    public ResponseEntity<?> updateUserProfile(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> updateUserProfile(@CurrentUser User user,
                                                @RequestBody UpdateProfileRequest updateProfileRequest) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         userService.updateUserProfile(user, updateProfileRequest);
         return ResponseEntity.ok("Profile updated successfully");
     }
@@ -59,26 +55,23 @@ public class UserController {
 
     @PostMapping("/recharge")
     @Operation(summary = "Recharge credit", description = "Recharge user credit")
-    public ResponseEntity<?> rechargeCredit(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> rechargeCredit(@CurrentUser User user,
                                @RequestParam BigDecimal amount) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         BigDecimal credit = userService.rechargeCredit(user, amount);
         return ResponseEntity.ok(credit);
     }
 
     @GetMapping("/credit")
     @Operation(summary = "Get credit", description = "Get user's own credit")
-    public ResponseEntity<?> getCredit(@AuthenticationPrincipal UserDetails userDetails) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
+    public ResponseEntity<?> getCredit(@CurrentUser User user) {
         BigDecimal credit = user.getCredits();
         return ResponseEntity.ok(credit);
     }
 
     @GetMapping("/credit/{userId}")
     @Operation(summary = "Get credit by user ID", description = "Get user credit by user ID, only admin can access this API")
-    public ResponseEntity<?> getCredit(@AuthenticationPrincipal UserDetails userDetails,
+    public ResponseEntity<?> getCredit(@CurrentUser User user,
                                        @PathVariable Long userId) {
-        User user = userRepository.findByUsername(userDetails.getUsername());
         BigDecimal credit = userService.getCredit(user, userId);
         return ResponseEntity.ok(credit);
     }
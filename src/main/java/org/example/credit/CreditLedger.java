@@ -0,0 +1,117 @@
+package org.example.credit;
+
+import org.example.exception.ApiException;
+import org.example.model.entity.CreditHistory;
+import org.example.model.entity.User;
+import org.example.repository.ChatHistoryRepository;
+import org.example.repository.CreditHistoryRepository;
+import org.example.repository.UserRepository;
+import org.hibernate.Hibernate;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.time.Instant;
+
+/**
+ * Moves credits with one conditional {@code UPDATE ... RETURNING} on {@code users} and records the change in
+ * {@code credit_history} in the same transaction. The balance is never read into Java and written back, so
+ * concurrent requests of one user can neither overspend nor lose an update, and the {@code User} row does not
+ * have to be loaded. {@code User.credits} is not updatable, so saving a whole {@code User} never writes an old
+ * balance back; a {@code User} already loaded in the current persistence context is given the new balance.
+ */
+@Component
+public class CreditLedger {
+
+    private final UserRepository userRepository;
+    private final CreditHistoryRepository creditHistoryRepository;
+    private final ChatHistoryRepository chatHistoryRepository;
+
+    public CreditLedger(UserRepository userRepository,
+                        CreditHistoryRepository creditHistoryRepository,
+                        ChatHistoryRepository chatHistoryRepository) {
+        this.userRepository = userRepository;
+        this.creditHistoryRepository = creditHistoryRepository;
+        this.chatHistoryRepository = chatHistoryRepository;
+    }
+
+    /**
+     * Takes {@code amount} from the user if the balance covers it.
+     *
+     * @return the new balance
+     */
+    @Transactional
+    public BigDecimal debit(Long userId, BigDecimal amount, String description) {
+        Timestamp now = Timestamp.from(Instant.now());
+        BigDecimal balance = userRepository.debitCredits(userId, amount, now);
+        if (balance == null) {
+            throw new ApiException("Insufficient credits", HttpStatus.BAD_REQUEST);
+        }
+        record(userId, amount.negate(), description, now);
+        syncLoaded(userId, balance);
+        return balance;
+    }
+
+    /**
+     * Adds {@code amount} to the user's balance.
+     *
+     * @return the new balance
+     */
+    @Transactional
+    public BigDecimal credit(Long userId, BigDecimal amount, String description) {
+        return add(userId, amount, description, Timestamp.from(Instant.now()));
+    }
+
+    /**
+     * Gives back {@code share} of what was charged for user message {@code messageId} of session
+     * {@code sessionId}. The message is marked refunded in the same statement that reads its recorded charge, so
+     * each message is refunded at most once no matter how often its answer is served.
+     *
+     * @return the new balance, or null when there was nothing to refund
+     */
+    @Transactional
+    public BigDecimal refundMessage(Long userId, Long sessionId, Long messageId, BigDecimal share,
+                                    String description) {
+        BigDecimal charged = chatHistoryRepository.claimRefund(messageId, sessionId);
+        if (charged == null) {
+            return null;
+        }
+        BigDecimal refund = charged.multiply(share).setScale(2, RoundingMode.FLOOR);
+        if (refund.signum() <= 0) {
+            return null;
+        }
+        return add(userId, refund, description, Timestamp.from(Instant.now()));
+    }
+
+    private BigDecimal add(Long userId, BigDecimal amount, String description, Timestamp now) {
+        BigDecimal balance = userRepository.addCredits(userId, amount, now);
+        if (balance == null) {
+            throw new ApiException("User not found", HttpStatus.NOT_FOUND);
+        }
+        record(userId, amount, description, now);
+        syncLoaded(userId, balance);
+        return balance;
+    }
+
+    // 原生 UPDATE 绕过了持久化上下文，已加载的实体要手动同步余额；未加载的代理不去触发查询
+    private void syncLoaded(Long userId, BigDecimal balance) {
+        User user = userRepository.getReferenceById(userId);
+        if (Hibernate.isInitialized(user)) {
+            user.setCredits(balance);
+        }
+    }
+
+    private void record(Long userId, BigDecimal amount, String description, Timestamp now) {
+        CreditHistory creditHistory = new CreditHistory();
+        // 只需要外键，用引用代替查询
+        creditHistory.setUser(userRepository.getReferenceById(userId));
+        creditHistory.setAmount(amount);
+        creditHistory.setDescription(description);
+        creditHistory.setCreatedAt(now);
+        creditHistory.setUpdatedAt(now);
+        creditHistoryRepository.save(creditHistory);
+    }
+}
@@ -1,15 +1,28 @@
 package org.example.exception;
 
 import lombok.Getter;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 
 @Getter
 public class ApiException extends RuntimeException {
     private final HttpStatus status;
+    private final HttpHeaders headers;
 
     public ApiException(String message, HttpStatus status) {
+        this(message, status, HttpHeaders.EMPTY);
+    }
+
+    public ApiException(String message, HttpStatus status, HttpHeaders headers) {
         super(message);
         this.status = status;
+        this.headers = headers;
     }
 
+    // 过载类错误，告诉客户端多久之后再试
+    public static ApiException retryLater(String message, HttpStatus status, long retryAfterSeconds) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        return new ApiException(message, status, headers);
+    }
 }
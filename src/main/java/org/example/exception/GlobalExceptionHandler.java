@@ -8,6 +8,6 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 public class GlobalExceptionHandler {
     @ExceptionHandler(ApiException.class)
     public ResponseEntity<String> handleApiException(ApiException e) {
-        return new ResponseEntity<>(e.getMessage(), e.getStatus());
+        return new ResponseEntity<>(e.getMessage(), e.getHeaders(), e.getStatus());
     }
 }
\ No newline at end of file
@@ -12,6 +12,7 @@ public class ChatHistoryResponse {
     private final String content;
     private final String messageType;
     private final String senderRole;
+    private final Boolean truncated;
     private final String updatedAt;
 
     public ChatHistoryResponse(ChatHistory chatHistory) {
@@ -20,6 +21,7 @@ public class ChatHistoryResponse {
         this.content = chatHistory.getContent();
         this.messageType = chatHistory.getMessageType().name();
         this.senderRole = chatHistory.getSenderRole().name();
+        this.truncated = chatHistory.getTruncated();
         this.updatedAt = chatHistory.getUpdatedAt().toString();
     }
 
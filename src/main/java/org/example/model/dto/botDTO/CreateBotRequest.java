@@ -13,6 +13,9 @@ public class CreateBotRequest {
     private Double temperature;
     private Integer maxTokens;
     private String prompt;
+    private Integer streamFlushMillis;
+    private Integer streamMaxFrameChars;
+    private Boolean summarizeHistory;
 
     public Bot toBot() {
         Bot bot = new Bot();
@@ -23,6 +26,11 @@ public class CreateBotRequest {
         bot.setTemperature(temperature);
         bot.setMaxTokens(maxTokens);
         bot.setPrompt(prompt);
+        bot.setStreamFlushMillis(streamFlushMillis);
+        bot.setStreamMaxFrameChars(streamMaxFrameChars);
+        if (summarizeHistory != null) {
+            bot.setSummarizeHistory(summarizeHistory);
+        }
         return bot;
     }
 }
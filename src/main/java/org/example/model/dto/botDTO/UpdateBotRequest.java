@@ -13,4 +13,7 @@ public class UpdateBotRequest {
     private Double temperature;
     private Integer maxTokens;
     private String prompt;
+    private Integer streamFlushMillis;
+    private Integer streamMaxFrameChars;
+    private Boolean summarizeHistory;
 }
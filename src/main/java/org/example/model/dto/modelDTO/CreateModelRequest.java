@@ -10,6 +10,8 @@ public class CreateModelRequest {
     private String apiUrl;
     private String apiKey;
     private Integer costRate;
+    private Long fallbackModelId;
+    private Integer contextWindow;
 
     public Model toModel() {
         Model model = new Model();
@@ -18,6 +20,10 @@ public class CreateModelRequest {
         model.setApiUrl(apiUrl);
         model.setApiKey(apiKey);
         model.setCostRate(costRate);
+        model.setFallbackModelId(fallbackModelId);
+        if (contextWindow != null) {
+            model.setContextWindow(contextWindow);
+        }
         return model;
     }
 }
@@ -9,11 +9,15 @@ public class GetModelResponse {
     private final String modelName;
     private final String description;
     private final Integer costRate;
+    private final Long fallbackModelId;
+    private final Integer contextWindow;
 
     public GetModelResponse(Model model) {
         this.modelId = model.getModelId();
         this.modelName = model.getModelName();
         this.description = model.getDescription();
         this.costRate = model.getCostRate();
+        this.fallbackModelId = model.getFallbackModelId();
+        this.contextWindow = model.getContextWindow();
     }
 }
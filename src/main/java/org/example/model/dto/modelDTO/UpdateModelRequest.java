@@ -9,4 +9,6 @@ public class UpdateModelRequest {
     private String apiUrl;
     private String apiKey;
     private Integer costRate;
+    private Long fallbackModelId; // 0 clears the fallback
+    private Integer contextWindow;
 }
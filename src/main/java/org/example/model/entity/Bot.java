@@ -46,6 +46,17 @@ public class Bot {
     @Column(nullable = false)
     private Boolean active = true;
 
+    // SSE 合帧参数，为空时使用 chat.stream.coalesce 的全局配置
+    @Column
+    private Integer streamFlushMillis;
+
+    @Column
+    private Integer streamMaxFrameChars;
+
+    // 长会话把较早的消息压缩成滚动摘要，作为第二条 system 消息发送
+    @Column(nullable = false, columnDefinition = "BOOLEAN DEFAULT FALSE")
+    private Boolean summarizeHistory = false;
+
     @Column(nullable = false)
     private Timestamp createdAt;
 
@@ -3,6 +3,7 @@ package org.example.model.entity;
 import jakarta.persistence.*;
 import lombok.Data;
 
+import java.math.BigDecimal;
 import java.sql.Timestamp;
 
 @Entity
@@ -28,6 +29,22 @@ public class ChatHistory {
     @Column(nullable = false)
     private SenderRole senderRole;
 
+    // 客户端中途断开时保存的不完整回复
+    @Column(nullable = false, columnDefinition = "BOOLEAN DEFAULT FALSE")
+    private Boolean truncated = false;
+
+    // 按会话模型的分词器统计的 token 数，旧数据为空时现算
+    @Column
+    private Integer tokenCount;
+
+    // 发送这条用户消息时实际扣除的积分，回答缓存的折扣按它退还
+    @Column(precision = 10, scale = 2)
+    private BigDecimal chargedCredits;
+
+    // 折扣是否已退还，同一条消息最多退一次
+    @Column(nullable = false, columnDefinition = "BOOLEAN DEFAULT FALSE")
+    private Boolean refunded = false;
+
     @Column(nullable = false)
     private Timestamp createdAt;
 
@@ -28,6 +28,13 @@ public class Model {
     @Column(nullable = false)
     private Integer costRate = 1;
 
+    // 上下文窗口大小（token），包含回复的 maxTokens
+    @Column(nullable = false, columnDefinition = "INTEGER DEFAULT 8192")
+    private Integer contextWindow = 8192;
+
+    // 熔断或重试耗尽时切换到的模型，为空则不做故障转移
+    private Long fallbackModelId;
+
     @Column(nullable = false)
     private Timestamp createdAt;
 
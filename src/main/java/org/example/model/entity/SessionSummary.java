@@ -0,0 +1,35 @@
+package org.example.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.sql.Timestamp;
+
+@Entity
+@Data
+@Table(name = "session_summaries")
+public class SessionSummary {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @OneToOne
+    @JoinColumn(name = "session_id", nullable = false, unique = true)
+    private Session session;
+
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String content = "";
+
+    // 摘要覆盖到的最后一条消息 id，之后的消息原样发送
+    @Column(nullable = false)
+    private Long coveredUntilId;
+
+    @Column(nullable = false)
+    private Integer tokenCount = 0;
+
+    @Column(nullable = false)
+    private Timestamp createdAt;
+
+    @Column(nullable = false)
+    private Timestamp updatedAt;
+}
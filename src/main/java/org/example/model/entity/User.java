@@ -27,7 +27,8 @@ public class User {
     @Column(nullable = false)
     private Role role = Role.USER;
 
-    @Column(nullable = false, precision = 10, scale = 2)
+    // 余额只由 CreditLedger 的原子 UPDATE 修改，整实体保存时不写回这一列
+    @Column(nullable = false, updatable = false, precision = 10, scale = 2)
     private BigDecimal credits = BigDecimal.ZERO;
 
     @Column(nullable = false)
@@ -42,6 +43,10 @@ public class User {
     @Column(nullable = false, columnDefinition = "TEXT")
     private String bio = "";
 
+    // 令牌版本，改密码等操作时加一，之前签发的 JWT 随即失效
+    @Column(nullable = false, columnDefinition = "INTEGER DEFAULT 0")
+    private Integer tokenVersion = 0;
+
     public enum Role {
         ADMIN, USER
     }
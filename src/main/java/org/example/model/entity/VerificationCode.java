@@ -0,0 +1,28 @@
+package org.example.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.sql.Timestamp;
+
+@Entity
+@Data
+@Table(name = "verification_codes")
+public class VerificationCode {
+    @Id
+    @Column(length = 100)
+    private String email;
+
+    @Column(nullable = false, length = 16)
+    private String code;
+
+    @Column(nullable = false)
+    private Timestamp issuedAt;
+
+    @Column(nullable = false)
+    private Timestamp expiresAt;
+
+    // 输错次数，达到上限后该验证码失效
+    @Column(nullable = false)
+    private Integer failedAttempts = 0;
+}
@@ -0,0 +1,21 @@
+package org.example.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.sql.Timestamp;
+
+@Entity
+@Data
+@Table(name = "verification_rate_limits")
+public class VerificationRateLimit {
+    @Id
+    @Column(name = "limit_key", length = 100)
+    private String key;
+
+    @Column(nullable = false)
+    private Timestamp windowEndsAt;
+
+    @Column(nullable = false)
+    private Integer hits = 0;
+}
@@ -0,0 +1,292 @@
+package org.example.prediction;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import okio.BufferedSource;
+import org.example.exception.ApiException;
+import org.example.model.entity.ChatHistory;
+import org.example.model.entity.Model;
+import org.example.repository.ChatHistoryRepository;
+import org.example.repository.ModelRepository;
+import org.example.stream.ChatCompletionParser;
+import org.example.upstream.UpstreamGateway;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Predicts the user's next message from the message they just sent. Predictions are started in the background
+ * as soon as {@code chat()} saves a user message and kept for {@code ttl-seconds} by message id, so
+ * {@code /bot/predict} normally answers from memory. Concurrent requests for the same message share one
+ * upstream call.
+ * <p>
+ * {@code mode} picks where predictions come from: {@code remote} always asks the prediction model,
+ * {@code local} only uses {@link NgramSuggestionEngine}, and {@code hybrid} asks the model only when the local
+ * engine has fewer than three suggestions.
+ */
+@Slf4j
+@Component
+public class NextMessagePredictor {
+
+    private static final String PREDICTION_PROMPT = """
+            You are an intelligent chat assistant that can predict the user's next message based on the messages they send.
+            ###Task:
+            1. Analyze user messages.
+            2. Provide three predictions for the user's next message, starting with "-pred=- ".
+            3. Make message predictions based on the user's language. If the user uses Chinese, use Chinese to make predictions.
+            ###Input:
+            - User: Hello, I would like to know more about your products.
+            ###Output format:
+            -pred=- How are your products priced?
+            -pred=- Do you have any other products?
+            -pred=- What are the advantages of your product compared to competitors?
+            """;
+
+    public enum Mode {
+        REMOTE, LOCAL, HYBRID
+    }
+
+    private static final int SUGGESTIONS = 3;
+
+    private record Entry(CompletableFuture<List<String>> predictions, long expiresAt) {
+    }
+
+    private final ChatHistoryRepository chatHistoryRepository;
+    private final ModelRepository modelRepository;
+    private final UpstreamGateway upstreamGateway;
+    private final ChatCompletionParser chatCompletionParser;
+    private final NgramSuggestionEngine suggestionEngine;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService sweeper;
+
+    private final String modelName;
+    private final Mode mode;
+    private final boolean prefetch;
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final long maxWaitMillis;
+    private final Counter localPredictions;
+    private final Counter remotePredictions;
+
+    public NextMessagePredictor(ChatHistoryRepository chatHistoryRepository,
+                                ModelRepository modelRepository,
+                                UpstreamGateway upstreamGateway,
+                                ChatCompletionParser chatCompletionParser,
+                                NgramSuggestionEngine suggestionEngine,
+                                MeterRegistry meterRegistry,
+                                @Value("${prediction.model-name:gpt-3.5-turbo}") String modelName,
+                                @Value("${prediction.mode:hybrid}") String mode,
+                                @Value("${prediction.prefetch:true}") boolean prefetch,
+                                @Value("${prediction.ttl-seconds:600}") long ttlSeconds,
+                                @Value("${prediction.max-entries:50000}") int maxEntries,
+                                @Value("${prediction.max-wait-millis:15000}") long maxWaitMillis,
+                                @Value("${prediction.threads:4}") int threads,
+                                @Value("${prediction.queue-capacity:500}") int queueCapacity) {
+        this.chatHistoryRepository = chatHistoryRepository;
+        this.modelRepository = modelRepository;
+        this.upstreamGateway = upstreamGateway;
+        this.chatCompletionParser = chatCompletionParser;
+        this.suggestionEngine = suggestionEngine;
+        this.modelName = modelName;
+        this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+        this.localPredictions = Counter.builder("prediction.requests")
+                .description("Next-message predictions computed")
+                .tag("source", "local")
+                .register(meterRegistry);
+        this.remotePredictions = Counter.builder("prediction.requests")
+                .description("Next-message predictions computed")
+                .tag("source", "remote")
+                .register(meterRegistry);
+        this.prefetch = prefetch;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.maxEntries = maxEntries;
+        this.maxWaitMillis = maxWaitMillis;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "prediction-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "prediction-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::sweep, 60, 60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts predicting in the background for a just-saved user message. Local suggestions are computed right
+     * away; remote ones are skipped when the queue or the cache is full, and {@link #predict(Long)} then
+     * computes them on demand.
+     */
+    public void prefetch(ChatHistory message) {
+        if (!prefetch || entries.size() >= maxEntries || entries.containsKey(message.getId())) {
+            return;
+        }
+        CompletableFuture<List<String>> future = new CompletableFuture<>();
+        if (entries.putIfAbsent(message.getId(), new Entry(future, System.nanoTime() + ttlNanos)) != null) {
+            return;
+        }
+        List<String> local = local(message);
+        if (local != null) {
+            future.complete(local);
+            return;
+        }
+        try {
+            executor.execute(() -> compute(message, future));
+        } catch (RejectedExecutionException e) {
+            entries.remove(message.getId());
+        }
+    }
+
+    public List<String> predict(Long messageId) {
+        long now = System.nanoTime();
+        Entry entry = entries.get(messageId);
+        if (entry != null && entry.expiresAt() - now < 0) {
+            entries.remove(messageId, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            ChatHistory message = chatHistoryRepository.findById(messageId).orElse(null);
+            if (message == null) {
+                throw new ApiException("Chat history not found", HttpStatus.NOT_FOUND);
+            }
+            // 同一条消息的并发请求只有第一个调用上游，其余等待同一个结果
+            CompletableFuture<List<String>> future = new CompletableFuture<>();
+            Entry created = new Entry(future, now + ttlNanos);
+            entry = entries.putIfAbsent(messageId, created);
+            if (entry == null) {
+                entry = created;
+                compute(message, future);
+            }
+        }
+        try {
+            return entry.predictions().get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ApiException apiException) {
+                throw apiException;
+            }
+            throw new ApiException("Request failed", HttpStatus.INTERNAL_SERVER_ERROR);
+        } catch (TimeoutException e) {
+            throw new ApiException("Prediction timed out", HttpStatus.GATEWAY_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException("Request failed", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private void compute(ChatHistory message, CompletableFuture<List<String>> future) {
+        try {
+            List<String> local = local(message);
+            future.complete(local != null ? local : request(message));
+        } catch (RuntimeException e) {
+            // 失败的结果不缓存，下次请求重新计算
+            entries.remove(message.getId());
+            future.completeExceptionally(e);
+        }
+    }
+
+    // 本地引擎给出的建议够用时返回，否则返回 null 由上游模型预测
+    private List<String> local(ChatHistory message) {
+        if (mode == Mode.REMOTE) {
+            return null;
+        }
+        List<String> suggestions = suggestionEngine.suggest(message.getSession().getBot().getBotId(),
+                message.getContent(), SUGGESTIONS);
+        if (mode == Mode.HYBRID && suggestions.size() < SUGGESTIONS) {
+            return null;
+        }
+        localPredictions.increment();
+        return suggestions;
+    }
+
+    private List<String> request(ChatHistory chatHistory) {
+        remotePredictions.increment();
+        JsonObject requestBody = new JsonObject();
+        JsonArray messages = new JsonArray();
+        JsonObject systemMessage = new JsonObject();
+        systemMessage.addProperty("role", "system");
+        systemMessage.addProperty("content", PREDICTION_PROMPT);
+        messages.add(systemMessage);
+        JsonObject userMessage = new JsonObject();
+        userMessage.addProperty("role", "user");
+        userMessage.addProperty("content", chatHistory.getContent());
+        messages.add(userMessage);
+        requestBody.add("messages", messages);
+        requestBody.addProperty("stream", false);
+        requestBody.addProperty("temperature", 0.8);
+        requestBody.addProperty("max_tokens", 256);
+        Model model = modelRepository.findByModelName(modelName);
+        if (model == null) {
+            throw new ApiException("Prediction model not available", HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        UpstreamGateway.Exchange exchange;
+        try {
+            exchange = upstreamGateway.open(upstreamGateway.reserve(model, chatHistory.getSession().getUser()),
+                    requestBody, call -> {});
+        } catch (IOException e) {
+            throw new ApiException("Request failed", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+        boolean dropped = false;
+        try {
+            BufferedSource source = exchange.getResponse().body().source();
+            String line = source.readUtf8Line();
+            if (line != null && !line.isEmpty()) {
+                String prediction = chatCompletionParser.extractMessageContent(line);
+                if (prediction != null) {
+                    String[] predictions = prediction.replace("\n", "").split("-pred=- ");
+                    List<String> predictionList = new ArrayList<>();
+                    for (String s : predictions) {
+                        s = s.trim();
+                        if (!s.isEmpty()) {
+                            predictionList.add(s);
+                        }
+                    }
+                    return List.copyOf(predictionList);
+                }
+            }
+        } catch (IOException e) {
+            dropped = true;
+            throw new ApiException("Request failed", HttpStatus.INTERNAL_SERVER_ERROR);
+        } finally {
+            exchange.release(dropped);
+        }
+        return List.of();
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> entry.expiresAt() - now < 0);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+        executor.shutdownNow();
+    }
+}
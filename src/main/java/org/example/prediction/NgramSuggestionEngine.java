@@ -0,0 +1,521 @@
+package org.example.prediction;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.entity.ChatHistory;
+import org.example.repository.ChatHistoryRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process next-message suggestions learned from the user turns in {@code chat_history}, so that most
+ * {@code /bot/predict} calls need no upstream model.
+ * <p>
+ * Per bot it records which user message followed which in the same session: the follow-ups are interned in a
+ * candidate table, and every word / word-pair / CJK character-pair feature of the preceding message keeps a
+ * small posting list of (candidate, count) in primitive arrays. A suggestion scores the candidates reached from
+ * the query's features and returns the best ones above {@code min-score}.
+ * <p>
+ * Candidates are other people's messages, so one is only suggested after {@code min-support} distinct users
+ * have sent it; a message typed by a single user (an address, a phone number, a pasted secret) is never shown
+ * to anyone else.
+ * <p>
+ * The model is rebuilt from the last snapshot plus the rows added since, and snapshotted every
+ * {@code snapshot-minutes}.
+ */
+@Slf4j
+@Component
+public class NgramSuggestionEngine {
+
+    private static final int SNAPSHOT_MAGIC = 0x4e475232;
+
+    private final ChatHistoryRepository chatHistoryRepository;
+    private final Map<Long, BotModel> models = new ConcurrentHashMap<>();
+    private final Map<Long, String> lastTurns;
+    private final ScheduledExecutorService scheduler;
+
+    private final boolean enabled;
+    private final Path snapshotPath;
+    private final long snapshotMinutes;
+    private final int maxCandidates;
+    private final int postingSize;
+    private final int maxChars;
+    private final double minScore;
+    private final int minSupport;
+    private final int pageSize;
+
+    private volatile boolean ready;
+    private final AtomicLong watermark = new AtomicLong();
+    private volatile boolean dirty;
+
+    public NgramSuggestionEngine(ChatHistoryRepository chatHistoryRepository,
+                                 @Value("${suggestion.enabled:true}") boolean enabled,
+                                 @Value("${suggestion.snapshot-path:data/suggestions.bin}") String snapshotPath,
+                                 @Value("${suggestion.snapshot-minutes:10}") long snapshotMinutes,
+                                 @Value("${suggestion.max-candidates-per-bot:20000}") int maxCandidates,
+                                 @Value("${suggestion.posting-size:32}") int postingSize,
+                                 @Value("${suggestion.max-chars:80}") int maxChars,
+                                 @Value("${suggestion.min-score:1.0}") double minScore,
+                                 @Value("${suggestion.min-support:3}") int minSupport,
+                                 @Value("${suggestion.sessions:100000}") int sessions,
+                                 @Value("${suggestion.bootstrap-page-size:1000}") int pageSize) {
+        this.chatHistoryRepository = chatHistoryRepository;
+        this.enabled = enabled;
+        this.snapshotPath = Path.of(snapshotPath);
+        this.snapshotMinutes = snapshotMinutes;
+        this.maxCandidates = maxCandidates;
+        this.postingSize = postingSize;
+        this.maxChars = maxChars;
+        this.minScore = minScore;
+        this.minSupport = Math.max(1, minSupport);
+        this.pageSize = pageSize;
+        // 每个会话最近一条用户消息，用来把它和下一条配对
+        this.lastTurns = new LinkedHashMap<>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > sessions;
+            }
+        };
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "suggestion-engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        scheduler.execute(this::bootstrap);
+        scheduler.scheduleWithFixedDelay(this::snapshotQuietly, snapshotMinutes, snapshotMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Learns a just-saved user message.
+     */
+    public void learn(ChatHistory message) {
+        if (!enabled || !ready) {
+            return;
+        }
+        observe(new UserTurn(message.getId(), message.getSession().getSessionId(),
+                message.getSession().getUser().getUserId(), message.getSession().getBot().getBotId(),
+                message.getContent()));
+    }
+
+    /**
+     * Up to {@code limit} likely next user messages of {@code botId} after {@code message}; fewer (or none) when
+     * the model has not seen enough similar messages.
+     */
+    public List<String> suggest(Long botId, String message, int limit) {
+        BotModel model = ready ? models.get(botId) : null;
+        if (model == null || message == null) {
+            return List.of();
+        }
+        String normalized = normalize(message);
+        return model.suggest(features(normalized), normalized, limit);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    private void observe(UserTurn turn) {
+        String text = normalize(turn.content());
+        String previous;
+        synchronized (lastTurns) {
+            previous = lastTurns.put(turn.sessionId(), text);
+        }
+        watermark.accumulateAndGet(turn.id(), Math::max);
+        if (previous == null || text.length() < 2 || text.length() > maxChars) {
+            return;
+        }
+        models.computeIfAbsent(turn.botId(), id -> new BotModel()).learn(features(previous), text, turn.userId());
+        dirty = true;
+    }
+
+    private void bootstrap() {
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not load suggestion snapshot {}, rebuilding: {}", snapshotPath, e.getMessage());
+            models.clear();
+            watermark.set(0);
+        }
+        try {
+            // 从快照的位置继续学习之后新增的消息
+            long before = watermark.get();
+            while (true) {
+                List<UserTurn> turns = chatHistoryRepository.findUserTurnsAfter(watermark.get(),
+                        PageRequest.of(0, pageSize));
+                turns.forEach(this::observe);
+                if (turns.size() < pageSize) {
+                    break;
+                }
+            }
+            ready = true;
+            log.info("Suggestion engine ready, {} bots, learned messages {}..{}", models.size(), before,
+                    watermark.get());
+        } catch (RuntimeException e) {
+            log.warn("Suggestion engine bootstrap failed: {}", e.getMessage());
+        }
+    }
+
+    private void snapshotQuietly() {
+        if (!ready || !dirty) {
+            return;
+        }
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not write suggestion snapshot {}: {}", snapshotPath, e.getMessage());
+        }
+    }
+
+    // 先写临时文件再原子替换，进程中途退出不会留下半个快照
+    private void snapshot() throws IOException {
+        dirty = false;
+        Path parent = snapshotPath.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, "suggestions", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(tmp))))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(watermark.get());
+            out.writeInt(models.size());
+            for (Map.Entry<Long, BotModel> entry : models.entrySet()) {
+                out.writeLong(entry.getKey());
+                entry.getValue().write(out);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        if (!Files.exists(snapshotPath)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(snapshotPath))))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Unknown snapshot format");
+            }
+            long snapshotWatermark = in.readLong();
+            int bots = in.readInt();
+            for (int i = 0; i < bots; i++) {
+                long botId = in.readLong();
+                BotModel model = new BotModel();
+                model.read(in);
+                models.put(botId, model);
+            }
+            watermark.set(snapshotWatermark);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        snapshotQuietly();
+    }
+
+    static String normalize(String message) {
+        return message.strip().replaceAll("\\s+", " ");
+    }
+
+    // 拉丁字母和数字连成词，汉字等表意文字每个字一个词；特征为单词（表意文字除外）和相邻两词
+    static int[] features(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < lower.length(); ) {
+            int cp = lower.codePointAt(i);
+            i += Character.charCount(cp);
+            if (Character.isIdeographic(cp)) {
+                if (word.length() > 0) {
+                    tokens.add(word.toString());
+                    word.setLength(0);
+                }
+                tokens.add(new String(Character.toChars(cp)));
+            } else if (Character.isLetterOrDigit(cp)) {
+                word.appendCodePoint(cp);
+            } else if (word.length() > 0) {
+                tokens.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+        }
+        int[] features = new int[tokens.size() * 2];
+        int n = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            if (!Character.isIdeographic(token.codePointAt(0))) {
+                features[n++] = hash(token);
+            }
+            if (i > 0) {
+                features[n++] = hash(tokens.get(i - 1) + ' ' + token);
+            }
+        }
+        return Arrays.stream(features, 0, n).distinct().toArray();
+    }
+
+    private static int hash(String feature) {
+        int h = feature.hashCode() * 0x9E3779B9;
+        return h != 0 ? h : 1;
+    }
+
+    /**
+     * Candidates and feature postings of one bot. Feature hashes live in an open-addressing table, each slot
+     * owning an {@code int[]} of interleaved (candidate id, count) pairs.
+     */
+    private class BotModel {
+        private final Map<String, Integer> candidateIds = new HashMap<>();
+        private String[] candidates = new String[64];
+        private int[] popularity = new int[64];
+        // 发过该候选的不同用户，凑够 min-support 个后只保留计数
+        private long[][] supporters = new long[64][];
+        private int[] support = new int[64];
+        private int candidateCount;
+
+        private int[] keys = new int[256];
+        private int[][] postings = new int[256][];
+        private int[] postingLengths = new int[256];
+        private int featureCount;
+
+        synchronized void learn(int[] features, String next, Long userId) {
+            Integer id = candidateIds.get(next);
+            if (id == null) {
+                if (candidateCount >= maxCandidates) {
+                    return;
+                }
+                id = newCandidate(next);
+            }
+            popularity[id]++;
+            addSupporter(id, userId);
+            for (int feature : features) {
+                add(slotFor(feature, true), id);
+            }
+        }
+
+        synchronized List<String> suggest(int[] features, String query, int limit) {
+            Map<Integer, Double> scores = new HashMap<>();
+            for (int feature : features) {
+                int slot = slotFor(feature, false);
+                if (slot < 0) {
+                    continue;
+                }
+                int[] posting = postings[slot];
+                int length = postingLengths[slot];
+                // 出现在越多候选里的特征区分度越低
+                double weight = 1.0 / (1.0 + Math.log1p(length / 2.0));
+                for (int i = 0; i < length; i += 2) {
+                    scores.merge(posting[i], weight * Math.log1p(posting[i + 1]), Double::sum);
+                }
+            }
+            List<Map.Entry<Integer, Double>> ranked = new ArrayList<>(scores.entrySet());
+            ranked.sort((a, b) -> {
+                int byScore = Double.compare(b.getValue(), a.getValue());
+                return byScore != 0 ? byScore : Integer.compare(popularity[b.getKey()], popularity[a.getKey()]);
+            });
+            List<String> suggestions = new ArrayList<>(limit);
+            for (Map.Entry<Integer, Double> entry : ranked) {
+                if (suggestions.size() >= limit || entry.getValue() < minScore) {
+                    break;
+                }
+                String candidate = candidates[entry.getKey()];
+                if (support[entry.getKey()] >= minSupport && !candidate.equalsIgnoreCase(query)) {
+                    suggestions.add(candidate);
+                }
+            }
+            return suggestions;
+        }
+
+        private int newCandidate(String text) {
+            int id = candidateCount++;
+            if (id == candidates.length) {
+                candidates = Arrays.copyOf(candidates, id * 2);
+                popularity = Arrays.copyOf(popularity, id * 2);
+                supporters = Arrays.copyOf(supporters, id * 2);
+                support = Arrays.copyOf(support, id * 2);
+            }
+            candidates[id] = text;
+            candidateIds.put(text, id);
+            return id;
+        }
+
+        private void addSupporter(int id, Long userId) {
+            if (userId == null || support[id] >= minSupport) {
+                return;
+            }
+            long[] users = supporters[id];
+            if (users == null) {
+                users = supporters[id] = new long[minSupport];
+            }
+            for (int i = 0; i < support[id]; i++) {
+                if (users[i] == userId) {
+                    return;
+                }
+            }
+            users[support[id]++] = userId;
+            if (support[id] >= minSupport) {
+                supporters[id] = null;
+            }
+        }
+
+        private int slotFor(int feature, boolean create) {
+            int mask = keys.length - 1;
+            int slot = feature & mask;
+            while (keys[slot] != 0) {
+                if (keys[slot] == feature) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (!create) {
+                return -1;
+            }
+            if ((featureCount + 1) * 2 > keys.length) {
+                grow();
+                return slotFor(feature, true);
+            }
+            keys[slot] = feature;
+            postings[slot] = new int[8];
+            featureCount++;
+            return slot;
+        }
+
+        // 满了以后新候选替换计数最小且只出现过一次的那个，否则丢弃
+        private void add(int slot, int id) {
+            int[] posting = postings[slot];
+            int length = postingLengths[slot];
+            int weakest = -1;
+            for (int i = 0; i < length; i += 2) {
+                if (posting[i] == id) {
+                    posting[i + 1]++;
+                    return;
+                }
+                if (weakest < 0 || posting[i + 1] < posting[weakest + 1]) {
+                    weakest = i;
+                }
+            }
+            if (length < postingSize * 2) {
+                if (length == posting.length) {
+                    posting = Arrays.copyOf(posting, Math.min(posting.length * 2, postingSize * 2));
+                    postings[slot] = posting;
+                }
+                posting[length] = id;
+                posting[length + 1] = 1;
+                postingLengths[slot] = length + 2;
+            } else if (posting[weakest + 1] <= 1) {
+                posting[weakest] = id;
+            }
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[][] oldPostings = postings;
+            int[] oldLengths = postingLengths;
+            keys = new int[oldKeys.length * 2];
+            postings = new int[keys.length][];
+            postingLengths = new int[keys.length];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) {
+                    continue;
+                }
+                int slot = oldKeys[i] & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                postings[slot] = oldPostings[i];
+                postingLengths[slot] = oldLengths[i];
+            }
+        }
+
+        synchronized void write(DataOutputStream out) throws IOException {
+            out.writeInt(candidateCount);
+            for (int i = 0; i < candidateCount; i++) {
+                out.writeUTF(candidates[i]);
+                out.writeInt(popularity[i]);
+                out.writeShort(support[i]);
+                int known = supporters[i] != null ? support[i] : 0;
+                out.writeShort(known);
+                for (int u = 0; u < known; u++) {
+                    out.writeLong(supporters[i][u]);
+                }
+            }
+            out.writeInt(featureCount);
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] == 0) {
+                    continue;
+                }
+                out.writeInt(keys[slot]);
+                out.writeShort(postingLengths[slot]);
+                for (int i = 0; i < postingLengths[slot]; i++) {
+                    out.writeInt(postings[slot][i]);
+                }
+            }
+        }
+
+        synchronized void read(DataInputStream in) throws IOException {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                int id = newCandidate(in.readUTF());
+                popularity[id] = in.readInt();
+                int users = in.readShort();
+                int known = in.readShort();
+                for (int u = 0; u < known; u++) {
+                    addSupporter(id, in.readLong());
+                }
+                // 只记了人数没记 id 的（已达当时的门槛），按人数算
+                support[id] = Math.max(support[id], users);
+                if (support[id] >= minSupport) {
+                    supporters[id] = null;
+                }
+            }
+            int features = in.readInt();
+            for (int f = 0; f < features; f++) {
+                int slot = slotFor(in.readInt(), true);
+                int length = in.readShort();
+                int[] posting = new int[Math.max(8, length)];
+                for (int i = 0; i < length; i++) {
+                    posting[i] = in.readInt();
+                }
+                postings[slot] = posting;
+                postingLengths[slot] = length;
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package org.example.prediction;
+
+/**
+ * A user message as {@link NgramSuggestionEngine} learns it, without loading the session and bot entities.
+ */
+public record UserTurn(Long id, Long sessionId, Long userId, Long botId, String content) {
+}
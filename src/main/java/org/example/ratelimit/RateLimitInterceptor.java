@@ -0,0 +1,96 @@
+package org.example.ratelimit;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.example.exception.ApiException;
+import org.example.security.AuthUser;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Per-user request rate and open-stream limits for the chat endpoints, with separate limits for admins.
+ * Every request reports its bucket in {@code X-RateLimit-*} headers; rejected requests get 429 with
+ * {@code Retry-After}.
+ */
+@Component
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private static final String STREAM_RELEASE = RateLimitInterceptor.class.getName() + ".streamRelease";
+
+    private final TokenBucketLimiter limiter;
+    private final StreamSlots streamSlots = new StreamSlots();
+    private final boolean enabled;
+    private final Limits userLimits;
+    private final Limits adminLimits;
+
+    record Limits(long capacity, long refillPerMinute, int maxStreams) {
+    }
+
+    public RateLimitInterceptor(@Value("${rate-limit.enabled:true}") boolean enabled,
+                                @Value("${rate-limit.max-keys:100000}") int maxKeys,
+                                @Value("${rate-limit.user.capacity:30}") long userCapacity,
+                                @Value("${rate-limit.user.refill-per-minute:60}") long userRefill,
+                                @Value("${rate-limit.user.max-streams:3}") int userMaxStreams,
+                                @Value("${rate-limit.admin.capacity:300}") long adminCapacity,
+                                @Value("${rate-limit.admin.refill-per-minute:600}") long adminRefill,
+                                @Value("${rate-limit.admin.max-streams:50}") int adminMaxStreams) {
+        this.enabled = enabled;
+        this.limiter = new TokenBucketLimiter(maxKeys);
+        this.userLimits = new Limits(userCapacity, userRefill, userMaxStreams);
+        this.adminLimits = new Limits(adminCapacity, adminRefill, adminMaxStreams);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        // SSE 结束时的异步分派不再计数
+        if (!enabled || request.getDispatcherType() == DispatcherType.ASYNC) {
+            return true;
+        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()
+                || !(authentication.getPrincipal() instanceof AuthUser user)) {
+            return true;
+        }
+        // 与上游的公平调度一样按用户 id 计数
+        String key = String.valueOf(user.getUserId());
+        Limits limits = authentication.getAuthorities().stream()
+                .anyMatch(authority -> "ROLE_ADMIN".equals(authority.getAuthority())) ? adminLimits : userLimits;
+
+        TokenBucketLimiter.Decision decision = limiter.tryAcquire(key, limits.capacity(), limits.refillPerMinute());
+        response.setHeader("X-RateLimit-Limit", String.valueOf(limits.capacity()));
+        response.setHeader("X-RateLimit-Remaining", String.valueOf(decision.remaining()));
+        response.setHeader("X-RateLimit-Reset", String.valueOf((decision.resetMillis() + 999) / 1000));
+        if (!decision.allowed()) {
+            throw tooManyRequests("Rate limit exceeded, please retry later", decision.retryAfterMillis());
+        }
+
+        if (request.getRequestURI().startsWith(request.getContextPath() + "/bot/response")) {
+            Runnable release = streamSlots.tryAcquire(key, limits.maxStreams());
+            response.setHeader("X-Stream-Limit", String.valueOf(limits.maxStreams()));
+            if (release == null) {
+                throw tooManyRequests("Too many open streams, close one and retry", 1000);
+            }
+            request.setAttribute(STREAM_RELEASE, release);
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        // 同步失败时在首次分派后调用；SSE 正常结束、超时或出错时在异步分派后调用
+        if (request.getAttribute(STREAM_RELEASE) instanceof Runnable release) {
+            release.run();
+        }
+    }
+
+    private static ApiException tooManyRequests(String message, long retryAfterMillis) {
+        return ApiException.retryLater(message, HttpStatus.TOO_MANY_REQUESTS,
+                Math.max(1, (retryAfterMillis + 999) / 1000));
+    }
+}
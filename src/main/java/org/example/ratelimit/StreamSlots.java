@@ -0,0 +1,43 @@
+package org.example.ratelimit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts open streams per caller and caps them.
+ */
+public class StreamSlots {
+
+    private final Map<String, AtomicInteger> open = new ConcurrentHashMap<>();
+
+    /**
+     * Returns a release handle, or {@code null} when {@code key} already has {@code max} streams open.
+     */
+    public Runnable tryAcquire(String key, int max) {
+        AtomicInteger[] holder = new AtomicInteger[1];
+        open.compute(key, (k, count) -> {
+            AtomicInteger current = count != null ? count : new AtomicInteger();
+            if (current.get() < max) {
+                current.incrementAndGet();
+                holder[0] = current;
+            }
+            return current.get() == 0 ? null : current;
+        });
+        if (holder[0] == null) {
+            return null;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        return () -> {
+            if (released.compareAndSet(false, true)) {
+                open.computeIfPresent(key, (k, count) -> count.decrementAndGet() <= 0 ? null : count);
+            }
+        };
+    }
+
+    public int getOpen(String key) {
+        AtomicInteger count = open.get(key);
+        return count != null ? count.get() : 0;
+    }
+}
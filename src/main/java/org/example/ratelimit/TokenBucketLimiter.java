@@ -0,0 +1,59 @@
+package org.example.ratelimit;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token buckets keyed by caller. Each bucket is a single {@link AtomicLong} holding the time at which
+ * it will be full again (GCRA), updated with CAS, so checks never block and the map (itself lock-striped) only
+ * holds one long per active key. Capacity and refill rate are passed per call, which lets the caller pick them
+ * by role without re-creating buckets.
+ */
+public class TokenBucketLimiter {
+
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final int maxKeys;
+
+    public TokenBucketLimiter(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    public record Decision(boolean allowed, long remaining, long resetMillis, long retryAfterMillis) {
+    }
+
+    /**
+     * Takes one token from {@code key}'s bucket of {@code capacity} tokens refilled at
+     * {@code refillPerMinute}.
+     */
+    public Decision tryAcquire(String key, long capacity, long refillPerMinute) {
+        long interval = Math.max(1, 60_000_000_000L / Math.max(1, refillPerMinute));
+        long burst = interval * capacity;
+        AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(System.nanoTime()));
+        while (true) {
+            long now = System.nanoTime();
+            long fullAt = bucket.get();
+            long next = (fullAt - now > 0 ? fullAt : now) + interval;
+            long debt = next - now;
+            if (debt > burst) {
+                long wait = debt - burst;
+                return new Decision(false, 0, nanosToMillis(debt - interval), nanosToMillis(wait));
+            }
+            if (bucket.compareAndSet(fullAt, next)) {
+                evictIfNeeded(now);
+                return new Decision(true, (burst - debt) / interval, nanosToMillis(debt), 0);
+            }
+        }
+    }
+
+    private void evictIfNeeded(long now) {
+        if (buckets.size() > maxKeys) {
+            // 已经回满的桶和新建的没有区别，直接丢弃
+            buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+        }
+    }
+
+    private static long nanosToMillis(long nanos) {
+        return (nanos + 999_999) / 1_000_000;
+    }
+}
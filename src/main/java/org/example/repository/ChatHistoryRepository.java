@@ -2,12 +2,16 @@ package org.example.repository;
 
 import org.example.model.entity.ChatHistory;
 import org.example.model.entity.Session;
+import org.example.prediction.UserTurn;
 import org.jetbrains.annotations.NotNull;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,11 +23,43 @@ public interface ChatHistoryRepository extends JpaRepository<ChatHistory, Long>
         FROM ChatHistory ch
         WHERE ch.session.sessionId = :sessionId
         AND ch.id <= :lastMessageId
-        ORDER BY ch.createdAt DESC
-        LIMIT 20
+        ORDER BY ch.id DESC
     """)
-    List<ChatHistory> findAllBySessionBeforeMessage(@Param("sessionId") Long sessionId,
-                                                    @Param("lastMessageId") Long lastMessageId);
+    List<ChatHistory> findRecentBySessionBeforeMessage(@Param("sessionId") Long sessionId,
+                                                       @Param("lastMessageId") Long lastMessageId,
+                                                       Pageable pageable);
+
+    @Query("""
+        SELECT ch
+        FROM ChatHistory ch
+        WHERE ch.session.sessionId = :sessionId
+        AND ch.id > :afterMessageId
+        ORDER BY ch.id ASC
+    """)
+    List<ChatHistory> findAllBySessionAfterMessage(@Param("sessionId") Long sessionId,
+                                                   @Param("afterMessageId") Long afterMessageId);
+
+    @Query("""
+        SELECT new org.example.prediction.UserTurn(ch.id, ch.session.sessionId, ch.session.user.userId,
+                                                   ch.session.bot.botId, ch.content)
+        FROM ChatHistory ch
+        WHERE ch.senderRole = org.example.model.entity.ChatHistory.SenderRole.USER
+        AND ch.id > :afterMessageId
+        ORDER BY ch.id ASC
+    """)
+    List<UserTurn> findUserTurnsAfter(@Param("afterMessageId") Long afterMessageId, Pageable pageable);
+
+    // 标记已退款并返回当初扣除的积分；已退过、不属于该会话或没有扣费记录时返回 null
+    @Transactional
+    @Query(value = """
+        UPDATE chat_history SET refunded = TRUE
+        WHERE id = :messageId
+        AND session_id = :sessionId
+        AND refunded = FALSE
+        AND charged_credits IS NOT NULL
+        RETURNING charged_credits
+    """, nativeQuery = true)
+    BigDecimal claimRefund(@Param("messageId") Long messageId, @Param("sessionId") Long sessionId);
 
     List<ChatHistory> findAllBySession(Session session);
 
@@ -11,4 +11,5 @@ import java.util.List;
 public interface ModelRepository extends JpaRepository<Model, Long> {
     Model findByModelName(String modelName);
     @NotNull List<Model> findAll();
+    List<Model> findAllByFallbackModelId(Long fallbackModelId);
 }
@@ -4,10 +4,13 @@ import org.example.model.entity.Bot;
 import org.example.model.entity.Model;
 import org.example.model.entity.Session;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.util.List;
 
 @Repository
@@ -26,5 +29,10 @@ public interface SessionRepository extends JpaRepository<Session, Long> {
                                 @Param("limit") Integer limit,
                                 @Param("offset") Integer offset);
 
+    @Modifying
+    @Transactional
+    @Query("UPDATE Session s SET s.updatedAt = :updatedAt WHERE s.sessionId = :sessionId")
+    void touch(@Param("sessionId") Long sessionId, @Param("updatedAt") Timestamp updatedAt);
+
     void deleteAllByBot(Bot bot);
 }
@@ -0,0 +1,21 @@
+package org.example.repository;
+
+import org.example.model.entity.Session;
+import org.example.model.entity.SessionSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface SessionSummaryRepository extends JpaRepository<SessionSummary, Long> {
+
+    @Query("""
+        SELECT ss
+        FROM SessionSummary ss
+        WHERE ss.session.sessionId = :sessionId
+    """)
+    SessionSummary findBySessionId(@Param("sessionId") Long sessionId);
+
+    void deleteAllBySession(Session session);
+}
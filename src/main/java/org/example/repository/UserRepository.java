@@ -2,11 +2,48 @@ package org.example.repository;
 
 import org.example.model.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     User findByUsername(String username);
     User findByEmail(String email);
     User findByUsernameOrEmail(String username, String email);
+
+    @Query("SELECT u.credits FROM User u WHERE u.userId = :userId")
+    BigDecimal findCreditsByUserId(@Param("userId") Long userId);
+
+    // 返回更新后的余额，用户不存在时返回 null
+    @Transactional
+    @Query(value = """
+        UPDATE users SET credits = credits + :amount, updated_at = :updatedAt
+        WHERE user_id = :userId
+        RETURNING credits
+    """, nativeQuery = true)
+    BigDecimal addCredits(@Param("userId") Long userId, @Param("amount") BigDecimal amount,
+                          @Param("updatedAt") Timestamp updatedAt);
+
+    // 余额足够才扣减并返回新余额，否则不更新并返回 null
+    @Transactional
+    @Query(value = """
+        UPDATE users SET credits = credits - :amount, updated_at = :updatedAt
+        WHERE user_id = :userId AND credits >= :amount
+        RETURNING credits
+    """, nativeQuery = true)
+    BigDecimal debitCredits(@Param("userId") Long userId, @Param("amount") BigDecimal amount,
+                            @Param("updatedAt") Timestamp updatedAt);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.password = :newHash, u.updatedAt = :updatedAt "
+            + "WHERE u.userId = :userId AND u.password = :oldHash")
+    int updatePassword(@Param("userId") Long userId, @Param("oldHash") String oldHash,
+                       @Param("newHash") String newHash, @Param("updatedAt") Timestamp updatedAt);
 }
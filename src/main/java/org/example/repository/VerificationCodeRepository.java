@@ -0,0 +1,57 @@
+package org.example.repository;
+
+import org.example.model.entity.VerificationCode;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+
+@Repository
+public interface VerificationCodeRepository extends JpaRepository<VerificationCode, String> {
+
+    // 冷却期内已有验证码时不覆盖，返回 0
+    @Modifying
+    @Transactional
+    @Query(value = """
+        INSERT INTO verification_codes (email, code, issued_at, expires_at, failed_attempts)
+        VALUES (:email, :code, :now, :expiresAt, 0)
+        ON CONFLICT (email) DO UPDATE
+        SET code = EXCLUDED.code, issued_at = EXCLUDED.issued_at,
+            expires_at = EXCLUDED.expires_at, failed_attempts = 0
+        WHERE verification_codes.issued_at <= :cooldownCutoff
+    """, nativeQuery = true)
+    int issue(@Param("email") String email, @Param("code") String code, @Param("now") Timestamp now,
+              @Param("expiresAt") Timestamp expiresAt, @Param("cooldownCutoff") Timestamp cooldownCutoff);
+
+    // 一条语句内完成比对与计数：猜错才加一，已达上限或过期时不匹配任何行，返回 null
+    @Transactional
+    @Query(value = """
+        UPDATE verification_codes
+        SET failed_attempts = failed_attempts + CASE WHEN code = :code THEN 0 ELSE 1 END
+        WHERE email = :email
+        AND expires_at > :now
+        AND failed_attempts < :maxAttempts
+        RETURNING code = :code
+    """, nativeQuery = true)
+    Boolean verify(@Param("email") String email, @Param("code") String code, @Param("now") Timestamp now,
+                   @Param("maxAttempts") Integer maxAttempts);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM VerificationCode v WHERE v.email = :email")
+    int deleteByEmail(@Param("email") String email);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM VerificationCode v WHERE v.email = :email AND v.code = :code")
+    int deleteByEmailAndCode(@Param("email") String email, @Param("code") String code);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM VerificationCode v WHERE v.expiresAt <= :now")
+    int deleteExpired(@Param("now") Timestamp now);
+}
@@ -0,0 +1,37 @@
+package org.example.repository;
+
+import org.example.model.entity.VerificationRateLimit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+
+@Repository
+public interface VerificationRateLimitRepository extends JpaRepository<VerificationRateLimit, String> {
+
+    // 固定窗口计数：窗口过期则重新开始，未过期且已达上限时不更新，返回 0
+    @Modifying
+    @Transactional
+    @Query(value = """
+        INSERT INTO verification_rate_limits (limit_key, window_ends_at, hits)
+        VALUES (:key, :windowEndsAt, 1)
+        ON CONFLICT (limit_key) DO UPDATE
+        SET hits = CASE WHEN verification_rate_limits.window_ends_at <= :now
+                        THEN 1 ELSE verification_rate_limits.hits + 1 END,
+            window_ends_at = CASE WHEN verification_rate_limits.window_ends_at <= :now
+                                  THEN EXCLUDED.window_ends_at ELSE verification_rate_limits.window_ends_at END
+        WHERE verification_rate_limits.window_ends_at <= :now
+        OR verification_rate_limits.hits < :limit
+    """, nativeQuery = true)
+    int tryAcquire(@Param("key") String key, @Param("limit") Integer limit, @Param("now") Timestamp now,
+                   @Param("windowEndsAt") Timestamp windowEndsAt);
+
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM VerificationRateLimit r WHERE r.windowEndsAt <= :now")
+    int deleteExpired(@Param("now") Timestamp now);
+}
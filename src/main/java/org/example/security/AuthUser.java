@@ -0,0 +1,64 @@
+package org.example.security;
+
+import org.example.model.entity.User;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Authenticated principal built from the JWT claims (user id, role, token version), so requests do not have to
+ * load the {@link User} row just to know who is calling. The password is only set when loaded for login.
+ */
+public class AuthUser implements UserDetails {
+
+    private final Long userId;
+    private final String username;
+    private final String password;
+    private final User.Role role;
+    private final int tokenVersion;
+    private final List<GrantedAuthority> authorities;
+
+    public AuthUser(Long userId, String username, String password, User.Role role, int tokenVersion) {
+        this.userId = userId;
+        this.username = username;
+        this.password = password;
+        this.role = role;
+        this.tokenVersion = tokenVersion;
+        this.authorities = List.of(new SimpleGrantedAuthority("ROLE_" + role.name()));
+    }
+
+    public static AuthUser of(User user) {
+        return new AuthUser(user.getUserId(), user.getUsername(), user.getPassword(), user.getRole(),
+                user.getTokenVersion());
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public User.Role getRole() {
+        return role;
+    }
+
+    public int getTokenVersion() {
+        return tokenVersion;
+    }
+
+    @Override
+    public Collection<? extends GrantedAuthority> getAuthorities() {
+        return authorities;
+    }
+
+    @Override
+    public String getPassword() {
+        return password;
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+}
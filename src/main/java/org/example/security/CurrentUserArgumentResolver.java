@@ -0,0 +1,51 @@
+package org.example.security;
+
+import lombok.RequiredArgsConstructor;
+import org.example.exception.ApiException;
+import org.example.model.entity.User;
+import org.example.repository.UserRepository;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * Resolves {@link CurrentUser} parameters. The {@link RequestUser} is built once per request from the
+ * {@link AuthUser} the JWT filter installed and kept as a request attribute, so every parameter and
+ * interceptor of the request shares the same (lazily loaded) entity.
+ */
+@Component
+@RequiredArgsConstructor
+public class CurrentUserArgumentResolver implements HandlerMethodArgumentResolver {
+
+    private static final String ATTRIBUTE = RequestUser.class.getName();
+
+    private final UserRepository userRepository;
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(CurrentUser.class)
+                && (parameter.getParameterType() == RequestUser.class || parameter.getParameterType() == User.class);
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        RequestUser requestUser = (RequestUser) webRequest.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (requestUser == null) {
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            if (authentication == null || !(authentication.getPrincipal() instanceof AuthUser principal)) {
+                throw new ApiException("Unauthorized", HttpStatus.UNAUTHORIZED);
+            }
+            requestUser = new RequestUser(principal, userRepository);
+            webRequest.setAttribute(ATTRIBUTE, requestUser, RequestAttributes.SCOPE_REQUEST);
+        }
+        return parameter.getParameterType() == User.class ? requestUser.getUser() : requestUser;
+    }
+}
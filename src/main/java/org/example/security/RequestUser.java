@@ -0,0 +1,44 @@
+package org.example.security;
+
+import org.example.model.entity.User;
+import org.example.repository.UserRepository;
+
+/**
+ * The caller of the current request: id, username and role straight from the token, and the {@link User}
+ * entity only when {@link #getUser()} is called. That returns a lazy JPA reference, so no SQL runs until a
+ * field other than the id (credits, profile) is read.
+ */
+public class RequestUser {
+
+    private final AuthUser principal;
+    private final UserRepository userRepository;
+    private User user;
+
+    RequestUser(AuthUser principal, UserRepository userRepository) {
+        this.principal = principal;
+        this.userRepository = userRepository;
+    }
+
+    public Long getUserId() {
+        return principal.getUserId();
+    }
+
+    public String getUsername() {
+        return principal.getUsername();
+    }
+
+    public User.Role getRole() {
+        return principal.getRole();
+    }
+
+    public boolean isAdmin() {
+        return principal.getRole() == User.Role.ADMIN;
+    }
+
+    public User getUser() {
+        if (user == null) {
+            user = userRepository.getReferenceById(principal.getUserId());
+        }
+        return user;
+    }
+}
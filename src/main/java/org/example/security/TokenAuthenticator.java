@@ -0,0 +1,140 @@
+package org.example.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import org.example.model.entity.User;
+import org.example.repository.UserRepository;
+import org.example.util.JwtUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns a bearer token into an {@link AuthUser} without touching the database on the hot path. The signature is
+ * checked once per token and the result kept in a bounded cache until the token expires; the user id, role and
+ * token version come from the claims.
+ * <p>
+ * Revocation works through {@link User#getTokenVersion()}: tokens carrying an older version than the one known
+ * for the user are rejected. The database is only read the first time a user is seen, when a token claims a
+ * newer version than the known one (bumped by another instance), for tokens issued before the claims existed,
+ * and once the known version is older than {@code jwt.version-ttl-seconds}, so a password reset on another
+ * instance takes effect here within that time.
+ */
+@Component
+public class TokenAuthenticator {
+
+    private record Verified(AuthUser user, long expiresAtMillis) {
+    }
+
+    private record KnownVersion(int version, long checkedAtMillis) {
+    }
+
+    private final JwtUtil jwtUtil;
+    private final UserRepository userRepository;
+    private final Map<String, Verified> verified = new ConcurrentHashMap<>();
+    private final Map<Long, KnownVersion> versions = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final long versionTtlMillis;
+
+    public TokenAuthenticator(JwtUtil jwtUtil,
+                              UserRepository userRepository,
+                              @Value("${jwt.cache.max-entries:10000}") int maxEntries,
+                              @Value("${jwt.version-ttl-seconds:30}") long versionTtlSeconds) {
+        this.jwtUtil = jwtUtil;
+        this.userRepository = userRepository;
+        this.maxEntries = maxEntries;
+        this.versionTtlMillis = TimeUnit.SECONDS.toMillis(versionTtlSeconds);
+    }
+
+    /**
+     * The principal of a valid, current token, or null for anything else.
+     */
+    public AuthUser authenticate(String token) {
+        long now = System.currentTimeMillis();
+        Verified hit = verified.get(token);
+        if (hit != null) {
+            if (hit.expiresAtMillis() > now && isCurrent(hit.user(), now)) {
+                return hit.user();
+            }
+            verified.remove(token);
+            return null;
+        }
+        Claims claims;
+        try {
+            claims = jwtUtil.parse(token);
+        } catch (JwtException | IllegalArgumentException e) {
+            return null;
+        }
+        AuthUser user = fromClaims(claims);
+        if (user == null || !isCurrent(user, now)) {
+            return null;
+        }
+        if (verified.size() >= maxEntries) {
+            evict(now);
+        }
+        verified.put(token, new Verified(user, claims.getExpiration().getTime()));
+        return user;
+    }
+
+    /**
+     * Records a bumped token version, so every token of the user issued before is rejected from now on.
+     */
+    public void revoke(Long userId, int tokenVersion) {
+        versions.merge(userId, new KnownVersion(tokenVersion, System.currentTimeMillis()), TokenAuthenticator::newer);
+        verified.values().removeIf(entry -> entry.user().getUserId().equals(userId));
+    }
+
+    private AuthUser fromClaims(Claims claims) {
+        Object uid = claims.get(JwtUtil.CLAIM_USER_ID);
+        if (uid == null) {
+            // 旧格式令牌只有用户名，按用户名查一次，之后同样走缓存
+            User user = userRepository.findByUsername(claims.getSubject());
+            return user != null ? new AuthUser(user.getUserId(), user.getUsername(), null, user.getRole(), 0) : null;
+        }
+        Object version = claims.get(JwtUtil.CLAIM_VERSION);
+        return new AuthUser(((Number) uid).longValue(), claims.getSubject(), null,
+                User.Role.valueOf((String) claims.get(JwtUtil.CLAIM_ROLE)),
+                version != null ? ((Number) version).intValue() : 0);
+    }
+
+    private boolean isCurrent(AuthUser user, long now) {
+        KnownVersion known = versions.get(user.getUserId());
+        if (known != null && user.getTokenVersion() <= known.version()
+                && now - known.checkedAtMillis() < versionTtlMillis) {
+            return user.getTokenVersion() == known.version();
+        }
+        // 第一次见到该用户、令牌版本比已知的新（其他实例已更新），或已知版本过了有效期，查一次库
+        User stored = userRepository.findById(user.getUserId()).orElse(null);
+        if (stored == null) {
+            versions.remove(user.getUserId());
+            return false;
+        }
+        KnownVersion current = versions.merge(user.getUserId(), new KnownVersion(stored.getTokenVersion(), now),
+                TokenAuthenticator::newer);
+        return user.getTokenVersion() == current.version();
+    }
+
+    // 版本只增不减；同一版本取较新的检查时间
+    private static KnownVersion newer(KnownVersion a, KnownVersion b) {
+        if (a.version() != b.version()) {
+            return a.version() > b.version() ? a : b;
+        }
+        return a.checkedAtMillis() >= b.checkedAtMillis() ? a : b;
+    }
+
+    // 先清掉过期的，仍然太多时随便丢掉四分之一，保持缓存有界
+    private void evict(long now) {
+        verified.values().removeIf(entry -> entry.expiresAtMillis() <= now);
+        versions.values().removeIf(known -> now - known.checkedAtMillis() >= versionTtlMillis);
+        int excess = verified.size() - maxEntries * 3 / 4;
+        Iterator<String> tokens = verified.keySet().iterator();
+        while (excess-- > 0 && tokens.hasNext()) {
+            tokens.next();
+            tokens.remove();
+        }
+    }
+}
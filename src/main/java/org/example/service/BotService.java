@@ -8,7 +8,9 @@ import org.example.model.dto.botDTO.UpdateBotRequest;
 import org.example.model.entity.Bot;
 import org.example.model.entity.User;
 import org.example.repository.ChatHistoryRepository;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 
@@ -23,6 +25,7 @@ public interface BotService {
     void updateSessionMaxTokens(User user, Long sessionId, Integer maxTokens);
     List<ChatHistoryResponse> getSessionChatHistory(User user, Long sessionId);
     ChatHistory chat(User user, Long sessionId, String message);
-    SseEmitter getChatResponseStream(User user, Long sessionId, Long lastMessageId);
+    SseEmitter getChatResponseStream(User user, Long sessionId, Long lastMessageId, Long lastEventId);
+    Flux<ServerSentEvent<String>> getChatResponseFlux(User user, Long sessionId, Long lastMessageId);
     List<String> predictNextMessage(Long messageId);
 }
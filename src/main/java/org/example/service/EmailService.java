@@ -1,5 +1,7 @@
 package org.example.service;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface EmailService {
-    void sendEmail(String to, String subject, String content);
+    CompletableFuture<Void> sendEmail(String to, String subject, String content);
 }
\ No newline at end of file
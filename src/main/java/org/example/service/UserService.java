@@ -7,9 +7,11 @@ import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
 
 public interface UserService extends UserDetailsService {
-    void sendVerificationCode(String email);
+    CompletableFuture<User> authenticate(String usernameOrEmail, String password);
+    void sendVerificationCode(String email, String clientIp);
     void register(User user, String verificationCode);
     void resetPassword(String email, String verificationCode, String newPassword);
     UserProfileResponse getUserProfile(Long userID);
@@ -1,8 +1,8 @@
 package org.example.service;
 
 public interface VerificationService {
-    String generateVerificationCode(String email);
-    boolean canSendCode(String email);
+    String generateVerificationCode(String email, String clientIp);
     boolean verifyCode(String email, String code);
     void clearCode(String email);
+    void reportDelivery(String email, String code, boolean delivered);
 }
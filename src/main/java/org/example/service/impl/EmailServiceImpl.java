@@ -1,40 +1,290 @@
 package org.example.service.impl;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
 import jakarta.mail.internet.MimeMessage;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.example.exception.ApiException;
 import org.example.service.EmailService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
-import org.springframework.mail.MailException;
-import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends mail in the background so requests do not wait for the SMTP round-trip. Emails go into a bounded queue;
+ * each worker takes up to {@code batch-size} of them at a time and sends them over its own SMTP connection,
+ * which stays open between batches until it has been idle for {@code keep-alive-seconds}. Failed sends are
+ * retried with exponential backoff; the returned future completes once the email is delivered or given up on,
+ * at the latest when the service shuts down.
+ * <p>
+ * Connection settings come from {@code spring.mail.*}, so the dispatcher can be pointed at an embedded SMTP
+ * server such as GreenMail.
+ */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class EmailServiceImpl implements EmailService {
-    private final JavaMailSender mailSender;
+
+    private record Email(String to, String subject, String text, int attempt, CompletableFuture<Void> result) {
+        Email retry() {
+            return new Email(to, subject, text, attempt + 1, result);
+        }
+    }
+
+    private static final long POLL_MILLIS = 1000;
+
+    private final JavaMailSenderImpl mailSender;
+    private final BlockingQueue<Email> queue;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService retryScheduler;
+    private final Set<Email> pendingRetries = ConcurrentHashMap.newKeySet();
+    private volatile boolean running = true;
+
+    private final String from;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryBackoffMillis;
+    private final long keepAliveMillis;
+    private final long shutdownSeconds;
+    private final Counter sent;
+    private final Counter retried;
+    private final Counter failed;
+
+    public EmailServiceImpl(JavaMailSenderImpl mailSender,
+                            MeterRegistry meterRegistry,
+                            @Value("${email.from:AI Bot Platform <aibotplatform000@gmail.com>}") String from,
+                            @Value("${email.workers:2}") int workers,
+                            @Value("${email.queue-capacity:1000}") int queueCapacity,
+                            @Value("${email.batch-size:20}") int batchSize,
+                            @Value("${email.max-attempts:4}") int maxAttempts,
+                            @Value("${email.retry-backoff-millis:2000}") long retryBackoffMillis,
+                            @Value("${email.keep-alive-seconds:30}") long keepAliveSeconds,
+                            @Value("${email.shutdown-seconds:10}") long shutdownSeconds) {
+        this.mailSender = mailSender;
+        this.from = from;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.keepAliveMillis = TimeUnit.SECONDS.toMillis(keepAliveSeconds);
+        this.shutdownSeconds = shutdownSeconds;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.sent = deliveries(meterRegistry, "sent");
+        this.retried = deliveries(meterRegistry, "retried");
+        this.failed = deliveries(meterRegistry, "failed");
+        Gauge.builder("email.queue.size", queue, BlockingQueue::size)
+                .description("Emails waiting for a worker")
+                .register(meterRegistry);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "email-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workers; i++) {
+            this.workers.execute(this::work);
+        }
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "email-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
     @Override
-    public void sendEmail(String to, String subject, String text) throws ApiException {
+    public CompletableFuture<Void> sendEmail(String to, String subject, String text) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (!running || !queue.offer(new Email(to, subject, text, 0, result))) {
+            throw ApiException.retryLater("Email service is busy, please try again later",
+                    HttpStatus.SERVICE_UNAVAILABLE, 5);
+        }
+        return result;
+    }
+
+    private void work() {
+        Transport transport = null;
+        long lastUsed = 0;
+        List<Email> batch = new ArrayList<>(batchSize);
         try {
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-
-            helper.setFrom("AI Bot Platform <aibotplatform000@gmail.com>");
-            helper.setTo(to);
-            helper.setSubject(subject);
-            helper.setText(text, true);
-            mailSender.send(message);
-            log.info("Successfully sent email to {}", to);
-        } catch (MailException e) {
-            throw new ApiException("Failed to send verification email: " + e.getMessage(),
-                    HttpStatus.INTERNAL_SERVER_ERROR);
-        } catch (MessagingException e) {
-            throw new ApiException(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
-        }
-    }
-}
\ No newline at end of file
+            while (running || !queue.isEmpty()) {
+                Email first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // 空闲太久就断开，SMTP 服务器本身也会踢掉长时间不用的连接
+                    if (transport != null && System.currentTimeMillis() - lastUsed > keepAliveMillis) {
+                        transport = close(transport);
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                transport = deliver(batch, transport);
+                lastUsed = System.currentTimeMillis();
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close(transport);
+        }
+    }
+
+    private Transport deliver(List<Email> batch, Transport transport) {
+        for (Email email : batch) {
+            try {
+                if (transport == null || !transport.isConnected()) {
+                    transport = connect();
+                }
+                MimeMessage message = build(email);
+                transport.sendMessage(message, message.getAllRecipients());
+                sent.increment();
+                log.info("Successfully sent email to {}", email.to());
+                email.result().complete(null);
+            } catch (SendFailedException e) {
+                if (isTransient(e)) {
+                    transport = close(transport);
+                    retryOrFail(email, e);
+                } else {
+                    // 收件地址无效或被永久拒绝，重试没有意义；连接本身仍可用
+                    fail(email, e);
+                }
+            } catch (MessagingException | RuntimeException e) {
+                transport = close(transport);
+                retryOrFail(email, e);
+            }
+        }
+        return transport;
+    }
+
+    /**
+     * 4xx replies (421 service unavailable, 450/451 mailbox busy or local error) are temporary and worth
+     * retrying; 5xx replies and invalid addresses are not. The reply code is read from the server response the
+     * SMTP provider puts into the exception message, so this does not depend on which JavaMail implementation
+     * (Angus, or com.sun.mail pulled in by GreenMail in tests) is on the classpath.
+     */
+    private static boolean isTransient(SendFailedException e) {
+        Exception cause = e;
+        while (cause != null) {
+            String reply = cause.getMessage();
+            if (reply != null && reply.length() >= 3 && Character.isDigit(reply.charAt(0))
+                    && Character.isDigit(reply.charAt(1)) && Character.isDigit(reply.charAt(2))) {
+                return reply.charAt(0) == '4';
+            }
+            cause = cause instanceof MessagingException messaging ? messaging.getNextException() : null;
+        }
+        return false;
+    }
+
+    private Transport connect() throws MessagingException {
+        Session session = mailSender.getSession();
+        String protocol = mailSender.getProtocol();
+        if (protocol == null) {
+            protocol = session.getProperty("mail.transport.protocol");
+        }
+        Transport transport = session.getTransport(protocol != null ? protocol : "smtp");
+        transport.connect(mailSender.getHost(), mailSender.getPort(), mailSender.getUsername(),
+                mailSender.getPassword());
+        return transport;
+    }
+
+    private MimeMessage build(Email email) throws MessagingException {
+        MimeMessage message = mailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
+        helper.setFrom(from);
+        helper.setTo(email.to());
+        helper.setSubject(email.subject());
+        helper.setText(email.text(), true);
+        helper.setSentDate(new Date());
+        message.saveChanges();
+        return message;
+    }
+
+    private void retryOrFail(Email email, Exception e) {
+        if (email.attempt() + 1 >= maxAttempts || !running) {
+            fail(email, e);
+            return;
+        }
+        retried.increment();
+        long delay = retryBackoffMillis << Math.min(email.attempt(), 10);
+        log.warn("Sending email to {} failed (attempt {}), retrying in {} ms: {}",
+                email.to(), email.attempt() + 1, delay, e.getMessage());
+        pendingRetries.add(email);
+        retryScheduler.schedule(() -> {
+            // 关闭时已由 shutdown 统一失败的不再重排
+            if (pendingRetries.remove(email) && !queue.offer(email.retry())) {
+                fail(email, e);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void fail(Email email, Exception e) {
+        fail(email, e.getMessage());
+    }
+
+    private void fail(Email email, String reason) {
+        failed.increment();
+        log.error("Failed to send email to {}: {}", email.to(), reason);
+        email.result().completeExceptionally(new ApiException("Failed to send verification email: " + reason,
+                HttpStatus.INTERNAL_SERVER_ERROR));
+    }
+
+    private static Transport close(Transport transport) {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                log.debug("Closing SMTP connection failed: {}", e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private static Counter deliveries(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("email.deliveries")
+                .description("Outbound emails by delivery result")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        // 停止接收新邮件，已排队的在限定时间内发完
+        running = false;
+        retryScheduler.shutdownNow();
+        workers.shutdown();
+        if (!workers.awaitTermination(shutdownSeconds, TimeUnit.SECONDS)) {
+            workers.shutdownNow();
+            log.warn("{} queued emails were not sent before shutdown", queue.size());
+        }
+        // 等待重试的和没来得及发的都要让调用方拿到结果，否则它们的 future 永远不会完成
+        for (Email email : pendingRetries) {
+            if (pendingRetries.remove(email)) {
+                fail(email, "email service shut down before retry");
+            }
+        }
+        List<Email> unsent = new ArrayList<>();
+        queue.drainTo(unsent);
+        for (Email email : unsent) {
+            fail(email, "email service shut down before sending");
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.example.service.impl;
 
 import lombok.RequiredArgsConstructor;
 import org.bouncycastle.math.raw.Mod;
+import org.example.context.SessionContextCache;
 import org.example.exception.ApiException;
 import org.example.model.dto.modelDTO.CreateModelRequest;
 import org.example.model.dto.modelDTO.GetModelResponse;
@@ -13,7 +14,9 @@ import org.example.repository.BotRepository;
 import org.example.repository.ChatHistoryRepository;
 import org.example.repository.ModelRepository;
 import org.example.repository.SessionRepository;
+import org.example.repository.SessionSummaryRepository;
 import org.example.service.ModelService;
+import org.example.upstream.UpstreamClientRegistry;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
@@ -29,6 +32,9 @@ public class ModelServiceImpl implements ModelService {
     private final BotRepository botRepository;
     private final SessionRepository sessionRepository;
     private final ChatHistoryRepository chatHistoryRepository;
+    private final SessionSummaryRepository sessionSummaryRepository;
+    private final UpstreamClientRegistry upstreamClientRegistry;
+    private final SessionContextCache sessionContextCache;
 
     @Override
     public Model createModel(CreateModelRequest createModelRequest) {
@@ -36,6 +42,9 @@ public class ModelServiceImpl implements ModelService {
         if (modelRepository.findByModelName(model.getModelName()) != null) {
             throw new ApiException("Model name already exists", HttpStatus.BAD_REQUEST);
         }
+        if (model.getFallbackModelId() != null && !modelRepository.existsById(model.getFallbackModelId())) {
+            throw new ApiException("Fallback model not found", HttpStatus.BAD_REQUEST);
+        }
         model.setCreatedAt(Timestamp.from(java.time.Instant.now()));
         model.setUpdatedAt(Timestamp.from(java.time.Instant.now()));
         return modelRepository.save(model);
@@ -59,8 +68,28 @@ public class ModelServiceImpl implements ModelService {
         if (updateModelRequest.getApiKey() != null) {
             existingModel.setApiKey(updateModelRequest.getApiKey());
         }
+        if (updateModelRequest.getContextWindow() != null) {
+            existingModel.setContextWindow(updateModelRequest.getContextWindow());
+        }
+        if (updateModelRequest.getFallbackModelId() != null) {
+            Long fallbackModelId = updateModelRequest.getFallbackModelId();
+            if (fallbackModelId <= 0) {
+                existingModel.setFallbackModelId(null);
+            } else if (fallbackModelId.equals(existingModel.getModelId())
+                    || !modelRepository.existsById(fallbackModelId)) {
+                throw new ApiException("Invalid fallback model", HttpStatus.BAD_REQUEST);
+            } else {
+                existingModel.setFallbackModelId(fallbackModelId);
+            }
+        }
         existingModel.setUpdatedAt(Timestamp.from(java.time.Instant.now()));
         modelRepository.save(existingModel);
+        sessionContextCache.invalidateModel(existingModel.getModelId());
+        if (updateModelRequest.getApiUrl() != null || updateModelRequest.getApiKey() != null) {
+            // URL 或 key 变更后重建该模型的上游客户端并重新预热连接
+            upstreamClientRegistry.invalidate(existingModel.getModelId());
+            upstreamClientRegistry.warmUp(existingModel);
+        }
     }
 
     @Override
@@ -76,10 +105,18 @@ public class ModelServiceImpl implements ModelService {
         }
         for (Session session : sessionList) {
             chatHistoryRepository.deleteAllBySession(session);
+            sessionSummaryRepository.deleteAllBySession(session);
         }
         sessionRepository.deleteAll(sessionList);
         botRepository.deleteAll(botList);
+        List<Model> dependents = modelRepository.findAllByFallbackModelId(modelId);
+        for (Model dependent : dependents) {
+            dependent.setFallbackModelId(null);
+        }
+        modelRepository.saveAll(dependents);
         modelRepository.delete(existingModel);
+        upstreamClientRegistry.invalidate(modelId);
+        sessionContextCache.invalidateModel(modelId);
     }
 
     @Override
@@ -1,20 +1,21 @@
 package org.example.service.impl;
 
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.credit.CreditLedger;
 import org.example.exception.ApiException;
 import org.example.model.dto.userDTO.UpdateProfileRequest;
 import org.example.model.dto.userDTO.UserProfileResponse;
-import org.example.model.entity.CreditHistory;
 import org.example.model.entity.User;
-import org.example.repository.CreditHistoryRepository;
 import org.example.repository.UserRepository;
+import org.example.security.AuthUser;
+import org.example.security.PasswordHasher;
+import org.example.security.TokenAuthenticator;
 import org.example.service.UserService;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.annotation.Lazy;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -24,32 +25,36 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Timestamp;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
+@Slf4j
 @Service
 public class UserServiceImpl implements UserService {
 
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHasher passwordHasher;
     private final VerificationServiceImpl verificationService;
     private final EmailServiceImpl emailService;
     private final UserRepository userRepository;
-    private final CreditHistoryRepository creditHistoryRepository;
+    private final CreditLedger creditLedger;
+    private final TokenAuthenticator tokenAuthenticator;
 
     @Value("${path.avatars}")
     private String uploadDir;
 
-    public UserServiceImpl(@Lazy PasswordEncoder passwordEncoder,
+    public UserServiceImpl(PasswordHasher passwordHasher,
                            VerificationServiceImpl verificationService,
                            EmailServiceImpl emailService,
                            UserRepository userRepository,
-                           CreditHistoryRepository creditHistoryRepository) {
-        this.passwordEncoder = passwordEncoder;
+                           CreditLedger creditLedger,
+                           TokenAuthenticator tokenAuthenticator) {
+        this.passwordHasher = passwordHasher;
         this.verificationService = verificationService;
         this.emailService = emailService;
         this.userRepository = userRepository;
-        this.creditHistoryRepository = creditHistoryRepository;
+        this.creditLedger = creditLedger;
+        this.tokenAuthenticator = tokenAuthenticator;
     }
 
     @Override
@@ -58,22 +63,44 @@ public class UserServiceImpl implements UserService {
         if (user == null) {
             throw new UsernameNotFoundException("User not found with username or email: " + username);
         }
-        return new org.springframework.security.core.userdetails.User(user.getUsername(), user.getPassword(), new ArrayList<>());
+        return AuthUser.of(user);
     }
 
     @Override
-    public void sendVerificationCode(String email) {
-        if (verificationService.canSendCode(email)) {
-            String code = verificationService.generateVerificationCode(email);
-            try {
-                emailService.sendEmail(email, "Verification Code",
-                        "Your verification code is: " + code);
-            } catch (ApiException e) {
-                throw new RuntimeException(e);
+    public CompletableFuture<User> authenticate(String usernameOrEmail, String password) {
+        User user = userRepository.findByUsernameOrEmail(usernameOrEmail, usernameOrEmail);
+        String storedHash = user != null ? user.getPassword() : null;
+        return passwordHasher.matches(password, storedHash).thenApply(matches -> {
+            if (!matches) {
+                throw new ApiException("Incorrect username or password", HttpStatus.BAD_REQUEST);
             }
-        } else {
-            throw new ApiException("Please wait before requesting a new code",
-                    HttpStatus.BAD_REQUEST);
+            if (passwordHasher.needsRehash(storedHash)) {
+                rehash(user.getUserId(), storedHash, password);
+            }
+            return user;
+        });
+    }
+
+    // 工作因子调整后，在用户下次登录时用新因子重新哈希；失败不影响登录
+    private void rehash(Long userId, String storedHash, String password) {
+        passwordHasher.hash(password)
+                .thenAccept(newHash -> userRepository.updatePassword(userId, storedHash, newHash,
+                        Timestamp.from(Instant.now())))
+                .exceptionally(e -> {
+                    log.warn("Password rehash for user {} failed: {}", userId, e.getMessage());
+                    return null;
+                });
+    }
+
+    @Override
+    public void sendVerificationCode(String email, String clientIp) {
+        String code = verificationService.generateVerificationCode(email, clientIp);
+        try {
+            emailService.sendEmail(email, "Verification Code", "Your verification code is: " + code)
+                    .whenComplete((ignored, e) -> verificationService.reportDelivery(email, code, e == null));
+        } catch (ApiException e) {
+            verificationService.reportDelivery(email, code, false);
+            throw e;
         }
     }
 
@@ -88,7 +115,7 @@ public class UserServiceImpl implements UserService {
         if (!verificationService.verifyCode(user.getEmail(), verificationCode)) {
             throw new ApiException("Invalid verification code", HttpStatus.BAD_REQUEST);
         }
-        user.setPassword(passwordEncoder.encode(user.getPassword()));
+        user.setPassword(passwordHasher.encode(user.getPassword()));
         Timestamp currentTimestamp = Timestamp.from(Instant.now());
         user.setCreatedAt(currentTimestamp);
         user.setUpdatedAt(currentTimestamp);
@@ -106,9 +133,12 @@ public class UserServiceImpl implements UserService {
             if (user == null) {
                 throw new ApiException("User not found", HttpStatus.NOT_FOUND);
             }
-            user.setPassword(passwordEncoder.encode(newPassword));
+            user.setPassword(passwordHasher.encode(newPassword));
+            user.setTokenVersion(user.getTokenVersion() + 1);
             user.setUpdatedAt(Timestamp.from(Instant.now()));
             userRepository.save(user);
+            // 重置密码后旧令牌全部作废
+            tokenAuthenticator.revoke(user.getUserId(), user.getTokenVersion());
             verificationService.clearCode(email);
         } else {
             throw new ApiException("Invalid verification code", HttpStatus.BAD_REQUEST);
@@ -139,17 +169,7 @@ public class UserServiceImpl implements UserService {
         if (amount.compareTo(BigDecimal.ZERO) <= 0) {
             throw new ApiException("Amount must be greater than 0", HttpStatus.BAD_REQUEST);
         }
-        user.setCredits(user.getCredits().add(amount));
-        user.setUpdatedAt(Timestamp.from(Instant.now()));
-        userRepository.save(user);
-        CreditHistory creditHistory = new CreditHistory();
-        creditHistory.setUser(user);
-        creditHistory.setDescription("Recharge");
-        creditHistory.setAmount(amount);
-        creditHistory.setCreatedAt(Timestamp.from(Instant.now()));
-        creditHistory.setUpdatedAt(Timestamp.from(Instant.now()));
-        creditHistoryRepository.save(creditHistory);
-        return user.getCredits();
+        return creditLedger.credit(user.getUserId(), amount, "Recharge");
     }
 
     @Override
@@ -1,51 +1,98 @@
 package org.example.service.impl;
 
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.exception.ApiException;
 import org.example.service.VerificationService;
+import org.example.verification.VerificationCodeStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Random;
 
+import java.security.SecureRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
 @Service
 public class VerificationServiceImpl implements VerificationService {
-    private final Map<String, VerificationCodeInfo> verificationCodes = new HashMap<>();
-    private static final long CODE_EXPIRATION_TIME = 1800000; // 30 minutes
-    private static final long RESEND_COOLDOWN = 60000; // 1 minute
 
-    @Override
-    public String generateVerificationCode(String email) {
-        String code = String.format("%06d", new Random().nextInt(999999));
-        long currentTime = System.currentTimeMillis();
-        verificationCodes.put(email, new VerificationCodeInfo(code, currentTime));
-        return code;
+    private final VerificationCodeStore store;
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService sweeper;
+
+    private final long ttlMillis;
+    private final long resendCooldownMillis;
+    private final int maxAttempts;
+    private final int ipMaxRequests;
+    private final long ipWindowSeconds;
+
+    public VerificationServiceImpl(VerificationCodeStore store,
+                                   @Value("${verification.ttl-seconds:1800}") long ttlSeconds,
+                                   @Value("${verification.resend-cooldown-seconds:60}") long resendCooldownSeconds,
+                                   @Value("${verification.max-attempts:5}") int maxAttempts,
+                                   @Value("${verification.ip.max-requests:10}") int ipMaxRequests,
+                                   @Value("${verification.ip.window-seconds:3600}") long ipWindowSeconds,
+                                   @Value("${verification.sweep-seconds:60}") long sweepSeconds) {
+        this.store = store;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.resendCooldownMillis = TimeUnit.SECONDS.toMillis(resendCooldownSeconds);
+        this.maxAttempts = maxAttempts;
+        this.ipMaxRequests = ipMaxRequests;
+        this.ipWindowSeconds = ipWindowSeconds;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "verification-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::sweep, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
     }
 
     @Override
-    public boolean canSendCode(String email) {
-        VerificationCodeInfo info = verificationCodes.get(email);
-        return info == null || System.currentTimeMillis() - info.timestamp > RESEND_COOLDOWN;
+    public String generateVerificationCode(String email, String clientIp) {
+        long now = System.currentTimeMillis();
+        if (clientIp != null && !store.tryAcquire("ip:" + clientIp, ipMaxRequests, now,
+                TimeUnit.SECONDS.toMillis(ipWindowSeconds))) {
+            throw ApiException.retryLater("Too many verification requests, please try again later",
+                    HttpStatus.TOO_MANY_REQUESTS, ipWindowSeconds);
+        }
+        String code = String.format("%06d", random.nextInt(1_000_000));
+        if (!store.issue(email, code, now, resendCooldownMillis, ttlMillis)) {
+            throw new ApiException("Please wait before requesting a new code", HttpStatus.BAD_REQUEST);
+        }
+        return code;
     }
 
     @Override
     public boolean verifyCode(String email, String code) {
-        VerificationCodeInfo info = verificationCodes.get(email);
-        if (info == null) return false;
-        long currentTime = System.currentTimeMillis();
-        return info.code.equals(code) && (currentTime - info.timestamp <= CODE_EXPIRATION_TIME);
+        return store.verify(email, code, System.currentTimeMillis(), maxAttempts);
     }
 
     @Override
     public void clearCode(String email) {
-        verificationCodes.remove(email);
+        store.remove(email);
     }
 
-    private static class VerificationCodeInfo {
-        String code;
-        long timestamp;
+    @Override
+    public void reportDelivery(String email, String code, boolean delivered) {
+        if (!delivered) {
+            // 邮件没送到，作废验证码，用户不必等冷却结束就能重新获取；只作废这封邮件里的码，不动之后新发的
+            store.remove(email, code);
+            log.warn("Verification code for {} was not delivered", email);
+        }
+    }
 
-        VerificationCodeInfo(String code, long timestamp) {
-            this.code = code;
-            this.timestamp = timestamp;
+    private void sweep() {
+        try {
+            store.purgeExpired(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            log.warn("Verification code sweep failed: {}", e.getMessage());
         }
     }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdownNow();
+    }
 }
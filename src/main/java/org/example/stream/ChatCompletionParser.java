@@ -0,0 +1,109 @@
+package org.example.stream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Pulls {@code choices[0].<container>.content} out of OpenAI-compatible chat completion payloads with a
+ * Jackson token stream, without building a JSON tree, and turns text into the HTML-ish form the web client
+ * renders ({@code ' '} to {@code &nbsp;}, {@code '\n'} to {@code <br>}) in a single pass.
+ * Stateless and thread-safe.
+ */
+@Slf4j
+@Component
+public class ChatCompletionParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Content of a streaming chunk ({@code choices[0].delta.content}). Accepts the line with or without the
+     * {@code data: } prefix; returns {@code null} for keep-alives, role-only chunks and anything unparsable.
+     */
+    public String extractDeltaContent(String line) {
+        return extractChoiceContent(line, "delta");
+    }
+
+    /**
+     * Content of a non-streaming completion ({@code choices[0].message.content}).
+     */
+    public String extractMessageContent(String json) {
+        return extractChoiceContent(json, "message");
+    }
+
+    public String extractChoiceContent(String json, String container) {
+        int start = json.startsWith("data:") ? 5 : 0;
+        while (start < json.length() && json.charAt(start) == ' ') {
+            start++;
+        }
+        if (start >= json.length() || json.charAt(start) != '{') {
+            return null;
+        }
+        try (JsonParser parser = JSON_FACTORY.createParser(start == 0 ? json : json.substring(start))) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("choices".equals(name) && value == JsonToken.START_ARRAY) {
+                    return parser.nextToken() == JsonToken.START_OBJECT ? readChoice(parser, container) : null;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException e) {
+            log.debug("Skipping malformed upstream chunk: {}", json);
+        }
+        return null;
+    }
+
+    private String readChoice(JsonParser parser, String container) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (container.equals(name) && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    JsonToken fieldValue = parser.nextToken();
+                    if ("content".equals(field)) {
+                        return fieldValue == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    }
+                    parser.skipChildren();
+                }
+                return null;
+            }
+            parser.skipChildren();
+        }
+        return null;
+    }
+
+    /**
+     * Appends {@code text} to {@code out} with spaces and newlines escaped for the web client. Callers on a
+     * hot path keep one builder per stream and reset it with {@code setLength(0)} between frames.
+     */
+    public void appendHtml(CharSequence text, StringBuilder out) {
+        int length = text.length();
+        out.ensureCapacity(out.length() + length + 16);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == ' ') {
+                out.append("&nbsp;");
+            } else if (c == '\n') {
+                out.append("<br>");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    public String toHtml(String text) {
+        if (text.indexOf(' ') < 0 && text.indexOf('\n') < 0) {
+            return text;
+        }
+        StringBuilder out = new StringBuilder(text.length() + 16);
+        appendHtml(text, out);
+        return out.toString();
+    }
+}
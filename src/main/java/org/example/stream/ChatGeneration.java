@@ -0,0 +1,213 @@
+package org.example.stream;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.example.model.entity.Bot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One upstream generation for a (session, last user message) pair, fanned out to any number of clients.
+ * <p>
+ * Every formatted delta gets a sequential event id and is kept in an {@link EventRing}. A client that attaches
+ * late, or reconnects with {@code Last-Event-ID}, is replayed what it missed and then follows the live tail
+ * through its own {@link StreamRelay}. Events pushed out of the ring are kept as one prefix string, with the
+ * offset where each of them ends, so any client still gets exactly the part of the answer it has not seen. The upstream call is only cancelled once no client has been
+ * attached for the registry's grace period.
+ */
+@Slf4j
+public class ChatGeneration {
+
+    public record Key(Long sessionId, Long lastMessageId) {
+    }
+
+    @Getter
+    private final Key key;
+    @Getter
+    private final Bot bot;
+    private final EventRing ring;
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder evictedPrefix = new StringBuilder();
+    private int[] evictedEnds = new int[64];
+    private int evictedCount;
+    private final AtomicBoolean upstreamClaimed = new AtomicBoolean();
+    private final List<StreamRelay> subscribers = new ArrayList<>();
+
+    private boolean finished;
+    private Throwable failure;
+    private Runnable canceller;
+    private String pendingCancelReason;
+    private volatile String cancelReason;
+    private int queuePosition;
+
+    ChatGeneration(Key key, Bot bot, int ringCapacity) {
+        this.key = key;
+        this.bot = bot;
+        this.ring = new EventRing(ringCapacity);
+    }
+
+    /**
+     * Returns true exactly once, for the request that has to start the upstream call. Every other request for
+     * the same key only attaches to this generation.
+     */
+    public boolean claimUpstream() {
+        return upstreamClaimed.compareAndSet(false, true);
+    }
+
+    /**
+     * Sets what cancels the upstream request (typically {@code call::cancel}). Replaced on every retry; runs
+     * right away if the generation was already cancelled.
+     */
+    public synchronized void onCancel(Runnable canceller) {
+        this.canceller = canceller;
+        if (cancelReason != null) {
+            canceller.run();
+        }
+    }
+
+    /**
+     * Called by the upstream reader while its call waits for a slot on the model.
+     */
+    public synchronized void queued(int position) {
+        if (finished) {
+            return;
+        }
+        queuePosition = position;
+        for (StreamRelay relay : subscribers) {
+            relay.offerQueuePosition(position);
+        }
+    }
+
+    /**
+     * Called by the upstream reader for every delta: {@code raw} is kept for persistence, {@code formatted}
+     * is numbered and relayed to the attached clients.
+     */
+    public synchronized void publish(String raw, String formatted) {
+        queuePosition = 0;
+        text.append(raw);
+        String evicted = ring.append(formatted);
+        if (evicted != null) {
+            evictedPrefix.append(evicted);
+            // 事件按 id 顺序被挤出，第 i 个位置记录 id 为 i + 1 的事件在前缀中的结束偏移
+            if (evictedCount == evictedEnds.length) {
+                evictedEnds = Arrays.copyOf(evictedEnds, evictedCount * 2);
+            }
+            evictedEnds[evictedCount++] = evictedPrefix.length();
+        }
+        long id = ring.lastId();
+        for (StreamRelay subscriber : subscribers) {
+            subscriber.offer(id, formatted);
+        }
+    }
+
+    public synchronized void complete() {
+        finish(null);
+    }
+
+    public synchronized void fail(Throwable error) {
+        finish(error);
+    }
+
+    private void finish(Throwable error) {
+        finished = true;
+        failure = error;
+        for (StreamRelay subscriber : subscribers) {
+            if (error == null) {
+                subscriber.complete();
+            } else {
+                subscriber.fail(error);
+            }
+        }
+        subscribers.clear();
+    }
+
+    public synchronized String getText() {
+        return text.toString();
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Reason the upstream call was cancelled for, or {@code null} if it was not.
+     */
+    public String getCancelReason() {
+        return cancelReason;
+    }
+
+    /**
+     * Whether an identical request may still attach instead of starting a new upstream call: the generation
+     * is running, or it finished successfully and is still retained.
+     */
+    synchronized boolean isReusable() {
+        return !finished || (failure == null && cancelReason == null);
+    }
+
+    /**
+     * Replays every event after {@code lastEventId} into {@code relay} as a single frame, then keeps it attached to
+     * the live tail (or completes it right away if generation already ended).
+     */
+    synchronized void attach(StreamRelay relay, long lastEventId) {
+        long lastSeen = Math.max(0, lastEventId);
+        long from = lastSeen + 1;
+        StringBuilder missed = new StringBuilder();
+        if (from < ring.firstId()) {
+            int start = lastSeen == 0 ? 0 : evictedEnds[(int) lastSeen - 1];
+            missed.append(evictedPrefix, start, evictedPrefix.length());
+            from = ring.firstId();
+        }
+        for (long id = from; id <= ring.lastId(); id++) {
+            missed.append(ring.get(id));
+        }
+        if (missed.length() > 0) {
+            relay.replay(ring.lastId(), missed.toString());
+        }
+        if (finished) {
+            if (failure == null) {
+                relay.complete();
+            } else {
+                relay.fail(failure);
+            }
+            return;
+        }
+        if (queuePosition > 0) {
+            relay.offerQueuePosition(queuePosition);
+        }
+        pendingCancelReason = null;
+        subscribers.add(relay);
+    }
+
+    /**
+     * Removes a client and stops its relay. Returns true if it was the last one and the caller should schedule a
+     * delayed cancel.
+     */
+    synchronized boolean detach(StreamRelay relay, String reason) {
+        // 不再收到 complete/fail，必须在这里结束发送线程，否则它会一直等下去
+        relay.close();
+        if (!subscribers.remove(relay) || finished) {
+            return false;
+        }
+        if (subscribers.isEmpty()) {
+            pendingCancelReason = reason;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Cancels the upstream call if nobody re-attached since the last client left.
+     */
+    synchronized void cancelIfUnattended() {
+        if (finished || !subscribers.isEmpty() || pendingCancelReason == null || cancelReason != null) {
+            return;
+        }
+        cancelReason = pendingCancelReason;
+        if (canceller != null) {
+            canceller.run();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.stream;
+
+import jakarta.annotation.PreDestroy;
+import org.example.model.entity.Bot;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hub of in-flight (and recently finished) generations by (session, last message). Identical requests, from a
+ * second tab or a reconnecting client, attach to the generation that is already there instead of starting
+ * another upstream call. Finished generations stay for {@code retention-millis} to serve late joiners; a
+ * generation nobody is attached to is cancelled after {@code grace-millis}.
+ */
+@Component
+public class ChatGenerationRegistry {
+
+    private final Map<ChatGeneration.Key, ChatGeneration> generations = new ConcurrentHashMap<>();
+    private final StreamRelayFactory streamRelayFactory;
+    private final int ringCapacity;
+    private final long graceMillis;
+    private final long retentionMillis;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chat-generation-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ChatGenerationRegistry(StreamRelayFactory streamRelayFactory,
+                                  @Value("${chat.stream.resume.ring-capacity:4096}") int ringCapacity,
+                                  @Value("${chat.stream.resume.grace-millis:10000}") long graceMillis,
+                                  @Value("${chat.stream.resume.retention-millis:30000}") long retentionMillis) {
+        this.streamRelayFactory = streamRelayFactory;
+        this.ringCapacity = ringCapacity;
+        this.graceMillis = graceMillis;
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Returns the reusable generation for this key, or atomically registers a new one. The caller that gets
+     * {@code true} from {@link ChatGeneration#claimUpstream()} must start the upstream call.
+     */
+    public ChatGeneration obtain(Long sessionId, Long lastMessageId, Bot bot) {
+        return generations.compute(new ChatGeneration.Key(sessionId, lastMessageId),
+                (key, current) -> current != null && current.isReusable()
+                        ? current
+                        : new ChatGeneration(key, bot, ringCapacity));
+    }
+
+    /**
+     * Drops a generation right away, e.g. when it could not be scheduled.
+     */
+    public void unregister(ChatGeneration generation) {
+        generations.remove(generation.getKey(), generation);
+    }
+
+    /**
+     * Called by the reader once the generation has ended, successfully or not.
+     */
+    public void finished(ChatGeneration generation) {
+        scheduler.schedule(() -> unregister(generation), retentionMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Attaches a client: replays the events after {@code lastEventId} and then streams the live tail.
+     */
+    public void attach(ChatGeneration generation, SseEmitter emitter, long lastEventId) {
+        AtomicReference<StreamRelay> relayRef = new AtomicReference<>();
+        StreamRelay relay = streamRelayFactory.start(generation.getBot(), emitter,
+                () -> detach(generation, relayRef.get(), ChatStreamMetrics.CLIENT_DISCONNECT));
+        relayRef.set(relay);
+        emitter.onTimeout(() -> detach(generation, relay, ChatStreamMetrics.TIMEOUT));
+        emitter.onError(e -> detach(generation, relay, ChatStreamMetrics.CLIENT_DISCONNECT));
+        emitter.onCompletion(() -> detach(generation, relay, ChatStreamMetrics.CLIENT_DISCONNECT));
+        generation.attach(relay, lastEventId);
+    }
+
+    private void detach(ChatGeneration generation, StreamRelay relay, String reason) {
+        // relay 因客户端过慢主动断开时继续生成并保存
+        if (relay == null || relay.isDisconnected()) {
+            return;
+        }
+        if (generation.detach(relay, reason)) {
+            scheduler.schedule(generation::cancelIfUnattended, graceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,216 @@
+package org.example.stream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.example.exception.ApiException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the blocking part of an SSE chat generation (the upstream read loop) and the client-facing relay tasks.
+ * <p>
+ * In {@code virtual} mode every generation gets its own virtual thread (JDK 21+), so a stream blocked on
+ * the upstream socket costs a few hundred bytes instead of a platform thread stack. On older runtimes, or in
+ * {@code platform} mode, a fixed pool of {@code max-concurrent} platform threads is used instead.
+ * In both modes at most {@code max-concurrent} generations run at once, up to {@code queue-capacity} more
+ * wait for a slot, and anything beyond that is rejected with 503.
+ * <p>
+ * Relays are capped separately at {@code max-relays}: one generation can feed several clients (tabs,
+ * reconnects), each with its own sender for the whole stream, so they are not bounded by the generation cap.
+ * Beyond the cap new clients get 503 as well.
+ */
+@Slf4j
+@Component
+public class ChatStreamExecutor {
+
+    public enum Mode {
+        VIRTUAL, PLATFORM
+    }
+
+    private final Mode mode;
+    private final int maxConcurrent;
+    private final int queueCapacity;
+    private final int maxRelays;
+    private final ExecutorService delegate;
+    private final ExecutorService relayDelegate;
+    private final Semaphore permits;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger relays = new AtomicInteger();
+    private final Counter rejected;
+
+    public ChatStreamExecutor(@Value("${chat.stream.executor.mode:virtual}") String mode,
+                              @Value("${chat.stream.executor.max-concurrent:2000}") int maxConcurrent,
+                              @Value("${chat.stream.executor.queue-capacity:500}") int queueCapacity,
+                              @Value("${chat.stream.executor.max-relays:4000}") int maxRelays,
+                              MeterRegistry meterRegistry) {
+        this.maxConcurrent = maxConcurrent;
+        this.queueCapacity = queueCapacity;
+        this.maxRelays = maxRelays;
+        this.permits = new Semaphore(maxConcurrent);
+
+        ExecutorService virtualExecutor = null;
+        if (Mode.VIRTUAL.name().equalsIgnoreCase(mode)) {
+            virtualExecutor = newVirtualThreadExecutor();
+            if (virtualExecutor == null) {
+                log.warn("Virtual threads are not available on Java {}, falling back to a platform thread pool",
+                        Runtime.version().feature());
+            }
+        }
+        if (virtualExecutor != null) {
+            this.mode = Mode.VIRTUAL;
+            this.delegate = virtualExecutor;
+            this.relayDelegate = virtualExecutor;
+        } else {
+            this.mode = Mode.PLATFORM;
+            AtomicInteger threadCount = new AtomicInteger();
+            this.delegate = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(queueCapacity + maxConcurrent), r -> {
+                        Thread thread = new Thread(r, "chat-stream-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            ((ThreadPoolExecutor) this.delegate).allowCoreThreadTimeOut(true);
+            // 发送线程数由 executeRelay 按 max-relays 计数限制，线程池本身不排队
+            AtomicInteger relayThreadCount = new AtomicInteger();
+            this.relayDelegate = new ThreadPoolExecutor(0, maxRelays, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), r -> {
+                        Thread thread = new Thread(r, "chat-relay-" + relayThreadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        }
+        log.info("Chat stream executor running in {} mode, max concurrent {}, queue capacity {}, max relays {}",
+                this.mode, maxConcurrent, queueCapacity, maxRelays);
+
+        Gauge.builder("chat.stream.active", active, AtomicInteger::get)
+                .description("Chat generations currently streaming")
+                .register(meterRegistry);
+        Gauge.builder("chat.stream.queued", queued, AtomicInteger::get)
+                .description("Chat generations waiting for a free stream slot")
+                .register(meterRegistry);
+        Gauge.builder("chat.stream.relays", relays, AtomicInteger::get)
+                .description("Client relays currently sending chat streams")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("chat.stream.rejected")
+                .description("Chat generations and relays rejected because the stream queue or relay cap was full")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Schedules a generation. Throws {@link ApiException} (503) right away when both the running slots and
+     * the wait queue are full, so the caller can fail the request before opening the SSE stream.
+     */
+    public void execute(Runnable task) {
+        if (inFlight.incrementAndGet() > maxConcurrent + queueCapacity) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+            throw new ApiException("Too many concurrent chat streams, please retry later",
+                    HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        queued.incrementAndGet();
+        try {
+            delegate.execute(() -> run(task));
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            inFlight.decrementAndGet();
+            rejected.increment();
+            throw new ApiException("Too many concurrent chat streams, please retry later",
+                    HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    /**
+     * Runs the client-facing side of a stream (see {@link StreamRelay}) for as long as that client is attached.
+     * Throws {@link ApiException} (503) when {@code max-relays} are already running.
+     */
+    public void executeRelay(Runnable task) {
+        if (relays.incrementAndGet() > maxRelays) {
+            relays.decrementAndGet();
+            rejected.increment();
+            throw new ApiException("Too many open chat streams, please retry later",
+                    HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        try {
+            relayDelegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    relays.decrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            relays.decrementAndGet();
+            rejected.increment();
+            throw new ApiException("Too many open chat streams, please retry later",
+                    HttpStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    private void run(Runnable task) {
+        boolean acquired = false;
+        try {
+            permits.acquire();
+            acquired = true;
+            queued.decrementAndGet();
+            active.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                active.decrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (acquired) {
+                permits.release();
+            } else {
+                queued.decrementAndGet();
+            }
+            inFlight.decrementAndGet();
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        delegate.shutdownNow();
+        relayDelegate.shutdownNow();
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        // 编译目标是 Java 17，通过反射调用 JDK 21 的 Executors.newVirtualThreadPerTaskExecutor()
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.example.stream;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ChatStreamMetrics {
+
+    public static final String CLIENT_DISCONNECT = "client_disconnect";
+    public static final String TIMEOUT = "timeout";
+
+    private final MeterRegistry meterRegistry;
+
+    public ChatStreamMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    // 相同请求挂到已有生成上，省下一次上游调用
+    public void recordSharedAttach() {
+        Counter.builder("chat.stream.shared")
+                .description("Chat stream requests served by an already running generation")
+                .register(meterRegistry)
+                .increment();
+    }
+
+    // 客户端断开或超时导致上游生成被取消
+    public void recordCancellation(String reason) {
+        Counter.builder("chat.stream.cancelled")
+                .description("Upstream generations cancelled before they finished")
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+}
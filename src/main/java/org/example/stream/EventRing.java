@@ -0,0 +1,38 @@
+package org.example.stream;
+
+/**
+ * Fixed-size ring of the most recent SSE payloads of one generation, addressed by their event id.
+ * Ids start at 1 and increase by one per event. Not thread-safe; guarded by the owning {@link ChatGeneration}.
+ */
+class EventRing {
+
+    private final String[] slots;
+    private long lastId;
+
+    EventRing(int capacity) {
+        this.slots = new String[Math.max(1, capacity)];
+    }
+
+    /**
+     * Stores {@code data} under the next id and returns the payload it evicted, or {@code null}.
+     */
+    String append(String data) {
+        lastId++;
+        int slot = (int) (lastId % slots.length);
+        String evicted = slots[slot];
+        slots[slot] = data;
+        return evicted;
+    }
+
+    long lastId() {
+        return lastId;
+    }
+
+    long firstId() {
+        return Math.max(1, lastId - slots.length + 1);
+    }
+
+    String get(long id) {
+        return slots[(int) (id % slots.length)];
+    }
+}
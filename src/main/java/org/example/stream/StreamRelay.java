@@ -0,0 +1,292 @@
+package org.example.stream;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded buffer between the upstream reader and one {@link SseEmitter}.
+ * <p>
+ * The reader calls {@link #offer(long, String)} and never blocks, so the provider connection is drained at full
+ * speed whatever the client's link is like. A separate sender ({@link #drain()}) writes to the emitter at the
+ * client's pace and batches whatever is queued into frames of up to {@code maxFrameChars}, waiting at most
+ * {@code flushMillis} for a frame to fill up (the first frame is sent as soon as it exists).
+ * When {@code capacity} frames are queued, {@link OverflowPolicy} decides what happens. A failed write means the
+ * client is gone, which is reported through {@code onClientGone}.
+ * <p>
+ * While the upstream call is still waiting for a slot, {@link #offerQueuePosition(int)} sends {@code queue}
+ * events (data: 1-based position) ahead of any delta; only the latest position is kept.
+ */
+@Slf4j
+public class StreamRelay {
+
+    public enum OverflowPolicy {
+        /** Merge everything queued into one frame and keep going. */
+        COALESCE,
+        /** Stop relaying deltas; send everything the client missed as a single frame when generation ends. */
+        DROP_TO_SUMMARY,
+        /** Close the client stream. Generation and persistence continue. */
+        DISCONNECT
+    }
+
+    private static final String DONE = "[DONE]";
+    private static final String QUEUE_EVENT = "queue";
+
+    private record Delta(long id, String text) {
+    }
+
+    private final SseEmitter emitter;
+    private final Runnable onClientGone;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final long flushNanos;
+    private final int maxFrameChars;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<Delta> frames = new ArrayDeque<>();
+    private StringBuilder summary;
+    private long summaryId;
+    private boolean finished;
+    private volatile boolean disconnected;
+    private Throwable failure;
+    private volatile boolean clientGone;
+    private volatile boolean closed;
+    private int queuePosition;
+
+    StreamRelay(SseEmitter emitter, Runnable onClientGone, int capacity, OverflowPolicy policy,
+                long flushMillis, int maxFrameChars) {
+        this.emitter = emitter;
+        this.onClientGone = onClientGone;
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        this.maxFrameChars = maxFrameChars;
+    }
+
+    /**
+     * Queues an already formatted delta with its event id. Never blocks.
+     */
+    public void offer(long id, String formatted) {
+        if (clientGone) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (finished || disconnected) {
+                return;
+            }
+            // 已经开始出 token，不再需要排队位置
+            queuePosition = 0;
+            if (summary != null) {
+                summary.append(formatted);
+                summaryId = id;
+                return;
+            }
+            if (frames.size() >= capacity) {
+                switch (policy) {
+                    case COALESCE -> {
+                        StringBuilder merged = new StringBuilder();
+                        for (Delta frame : frames) {
+                            merged.append(frame.text());
+                        }
+                        long mergedId = frames.getLast().id();
+                        frames.clear();
+                        frames.add(new Delta(mergedId, merged.toString()));
+                    }
+                    case DROP_TO_SUMMARY -> {
+                        summary = new StringBuilder();
+                        for (Delta frame : frames) {
+                            summary.append(frame.text());
+                        }
+                        frames.clear();
+                        summary.append(formatted);
+                        summaryId = id;
+                        return;
+                    }
+                    case DISCONNECT -> {
+                        disconnected = true;
+                        frames.clear();
+                        changed.signal();
+                        return;
+                    }
+                }
+            }
+            frames.add(new Delta(id, formatted));
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues what an attaching client missed, already merged into one frame tagged with the id of its last event.
+     * Bypasses the overflow policy: the backlog is one frame however many events it covers.
+     */
+    void replay(long id, String formatted) {
+        lock.lock();
+        try {
+            if (finished || disconnected) {
+                return;
+            }
+            queuePosition = 0;
+            frames.add(new Delta(id, formatted));
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports the upstream call's position in the model's wait queue. Never blocks.
+     */
+    public void offerQueuePosition(int position) {
+        if (clientGone) {
+            return;
+        }
+        lock.lock();
+        try {
+            queuePosition = position;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Generation finished normally: the sender flushes what is left, then sends {@code [DONE]}.
+     */
+    public void complete() {
+        finish(null);
+    }
+
+    /**
+     * Generation failed: the sender flushes what is left, then completes the emitter with {@code error}.
+     */
+    public void fail(Throwable error) {
+        finish(error);
+    }
+
+    private void finish(Throwable error) {
+        lock.lock();
+        try {
+            finished = true;
+            failure = error;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The client went away (emitter timed out, failed or completed): the sender stops without writing anything
+     * more, and later deltas are dropped.
+     */
+    public void close() {
+        clientGone = true;
+        lock.lock();
+        try {
+            closed = true;
+            frames.clear();
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * True once the relay closed the client stream itself because of {@link OverflowPolicy#DISCONNECT}.
+     */
+    public boolean isDisconnected() {
+        return disconnected;
+    }
+
+    /**
+     * Sender loop, run on its own (virtual) thread until the stream ends or the client goes away.
+     */
+    void drain() {
+        StringBuilder frame = new StringBuilder(256);
+        long frameId = 0;
+        boolean firstSent = false;
+        try {
+            while (true) {
+                frame.setLength(0);
+                int position = 0;
+                lock.lock();
+                try {
+                    while (frames.isEmpty() && !finished && !disconnected && !closed && queuePosition == 0) {
+                        changed.await();
+                    }
+                    if (disconnected || closed) {
+                        break;
+                    }
+                    if (frames.isEmpty()) {
+                        if (queuePosition == 0) {
+                            break;
+                        }
+                        position = queuePosition;
+                        queuePosition = 0;
+                    } else {
+                        frameId = appendDelta(frame, frames.poll());
+                        long deadline = System.nanoTime() + (firstSent ? flushNanos : 0);
+                        while (frame.length() < maxFrameChars && !disconnected && !closed) {
+                            if (!frames.isEmpty()) {
+                                frameId = appendDelta(frame, frames.poll());
+                                continue;
+                            }
+                            long remaining = deadline - System.nanoTime();
+                            if (finished || remaining <= 0) {
+                                break;
+                            }
+                            changed.awaitNanos(remaining);
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (position != 0) {
+                    emitter.send(SseEmitter.event().name(QUEUE_EVENT).data(Integer.toString(position)));
+                    continue;
+                }
+                // 帧的 id 取其中最后一个 delta 的 id，客户端重连时据此续传
+                emitter.send(SseEmitter.event().id(Long.toString(frameId)).data(frame.toString()));
+                firstSent = true;
+            }
+
+            if (closed) {
+                return;
+            }
+            if (disconnected) {
+                log.info("SSE client too slow, relay buffer full ({} frames), disconnecting", capacity);
+                emitter.completeWithError(new IOException("Client too slow, stream disconnected"));
+                return;
+            }
+            if (summary != null && summary.length() > 0) {
+                emitter.send(SseEmitter.event().id(Long.toString(summaryId)).data(summary.toString()));
+            }
+            if (failure != null) {
+                emitter.completeWithError(failure);
+                return;
+            }
+            emitter.send(SseEmitter.event().data(DONE));
+            emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            // 客户端已断开或 emitter 已超时结束，后续 offer 直接丢弃，并通知生成方取消上游请求
+            clientGone = true;
+            onClientGone.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            clientGone = true;
+        }
+    }
+
+    private static long appendDelta(StringBuilder frame, Delta delta) {
+        frame.append(delta.text());
+        return delta.id();
+    }
+}
@@ -0,0 +1,41 @@
+package org.example.stream;
+
+import org.example.model.entity.Bot;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Creates and starts {@link StreamRelay}s. Frame settings come from {@code chat.stream.coalesce}, overridden
+ * by the bot's own {@code streamFlushMillis} / {@code streamMaxFrameChars} when set; buffer size and overflow
+ * policy from {@code chat.stream.relay}.
+ */
+@Component
+public class StreamRelayFactory {
+
+    private final ChatStreamExecutor chatStreamExecutor;
+    private final long defaultFlushMillis;
+    private final int defaultMaxFrameChars;
+    private final int capacity;
+    private final StreamRelay.OverflowPolicy overflowPolicy;
+
+    public StreamRelayFactory(ChatStreamExecutor chatStreamExecutor,
+                              @Value("${chat.stream.coalesce.flush-millis:50}") long defaultFlushMillis,
+                              @Value("${chat.stream.coalesce.max-frame-chars:1024}") int defaultMaxFrameChars,
+                              @Value("${chat.stream.relay.capacity:256}") int capacity,
+                              @Value("${chat.stream.relay.overflow-policy:coalesce}") String overflowPolicy) {
+        this.chatStreamExecutor = chatStreamExecutor;
+        this.defaultFlushMillis = defaultFlushMillis;
+        this.defaultMaxFrameChars = defaultMaxFrameChars;
+        this.capacity = capacity;
+        this.overflowPolicy = StreamRelay.OverflowPolicy.valueOf(overflowPolicy.toUpperCase().replace('-', '_'));
+    }
+
+    public StreamRelay start(Bot bot, SseEmitter emitter, Runnable onClientGone) {
+        long flushMillis = bot.getStreamFlushMillis() != null ? bot.getStreamFlushMillis() : defaultFlushMillis;
+        int maxFrameChars = bot.getStreamMaxFrameChars() != null ? bot.getStreamMaxFrameChars() : defaultMaxFrameChars;
+        StreamRelay relay = new StreamRelay(emitter, onClientGone, capacity, overflowPolicy, flushMillis, maxFrameChars);
+        chatStreamExecutor.executeRelay(relay::drain);
+        return relay;
+    }
+}
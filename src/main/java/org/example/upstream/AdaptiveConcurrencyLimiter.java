@@ -0,0 +1,293 @@
+package org.example.upstream;
+
+import org.example.exception.ApiException;
+import org.springframework.http.HttpStatus;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * AIMD concurrency limit for the upstream calls of one model.
+ * <p>
+ * Each successful call whose time-to-first-byte stays within {@code tolerance} times the best recently seen
+ * latency grows the limit by {@code 1/limit} (about +1 per window of calls); a slow response, an upstream error
+ * or a timeout multiplies it by {@code backoffRatio}. Calls over the limit wait in a short queue, and once
+ * that is full new calls are rejected right away with 503 and {@code Retry-After}.
+ * <p>
+ * The queue is weighted fair rather than FIFO: every call belongs to a flow (a user) with a weight, gets the
+ * virtual finish tag {@code max(virtualTime, lastFinish(flow)) + 1 / weight}, and free slots go to the smallest
+ * tag. A flow that queues many calls only pushes back its own calls, and a flow with weight 2 gets twice the
+ * slots of a flow with weight 1 while both are backlogged.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueCapacity;
+    private final double backoffRatio;
+    private final double tolerance;
+    private final long retryAfterSeconds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dispatched = lock.newCondition();
+    private final PriorityQueue<Permit> queue = new PriorityQueue<>(
+            Comparator.comparingDouble((Permit permit) -> permit.finishTag).thenComparingLong(permit -> permit.seq));
+    private final Map<String, Double> flowFinishTags = new HashMap<>();
+    private double limit;
+    private int inFlight;
+    private double baselineNanos;
+    private double virtualTime;
+    private long seq;
+
+    AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, int queueCapacity,
+                               double backoffRatio, double tolerance, long retryAfterSeconds) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.queueCapacity = queueCapacity;
+        this.backoffRatio = backoffRatio;
+        this.tolerance = tolerance;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Takes a slot if one is free and nobody is queued, otherwise a place in the wait queue of {@code flow}
+     * (see {@link Permit#await(long, IntConsumer)}). Never blocks; throws 503 when the queue is full too.
+     */
+    public Permit reserve(String flow, double weight) {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit && queue.isEmpty()) {
+                inFlight++;
+                return new Permit(flow, weight, true);
+            }
+            if (queue.size() >= queueCapacity) {
+                throw overloaded();
+            }
+            Permit permit = new Permit(flow, weight, false);
+            permit.startTag = Math.max(virtualTime, flowFinishTags.getOrDefault(flow, 0.0));
+            permit.finishTag = permit.startTag + 1.0 / Math.max(weight, 0.01);
+            permit.seq = seq++;
+            flowFinishTags.put(flow, permit.finishTag);
+            queue.add(permit);
+            return permit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a slot only if one is free right now, for callers that cannot wait.
+     */
+    public Permit reserveNow(String flow, double weight) {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit && queue.isEmpty()) {
+                inFlight++;
+                return new Permit(flow, weight, true);
+            }
+            throw overloaded();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getWaiting() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ApiException overloaded() {
+        return ApiException.retryLater("Model " + name + " is overloaded, please retry later",
+                HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds);
+    }
+
+    private void decrease() {
+        limit = Math.max(minLimit, limit * backoffRatio);
+    }
+
+    // 持有 lock 时调用：把空出来的并发额度按虚拟完成时间依次分给队列中的请求
+    private void dispatch() {
+        boolean any = false;
+        while (inFlight < (int) limit && !queue.isEmpty()) {
+            Permit next = queue.poll();
+            next.granted = true;
+            inFlight++;
+            virtualTime = Math.max(virtualTime, next.startTag);
+            any = true;
+        }
+        if (any) {
+            // 已经落后于虚拟时间的流不会再影响排序，清理掉
+            flowFinishTags.values().removeIf(tag -> tag <= virtualTime);
+            dispatched.signalAll();
+        }
+    }
+
+    private int positionOf(Permit permit) {
+        int position = 1;
+        for (Permit other : queue) {
+            if (queue.comparator().compare(other, permit) < 0) {
+                position++;
+            }
+        }
+        return position;
+    }
+
+    public class Permit {
+        private final String flow;
+        private final double weight;
+        private boolean granted;
+        private boolean done;
+        private double startTag;
+        private double finishTag;
+        private long seq;
+
+        private Permit(String flow, double weight, boolean granted) {
+            this.flow = flow;
+            this.weight = weight;
+            this.granted = granted;
+        }
+
+        public String getFlow() {
+            return flow;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        /**
+         * Whether a slot has been handed to this permit.
+         */
+        boolean isGranted() {
+            lock.lock();
+            try {
+                return granted;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Waits up to {@code maxWaitMillis} for a slot if this permit was queued; 503 if none is handed to it in
+         * time. {@code onPosition} is told the 1-based queue position whenever it changes (not under the lock).
+         */
+        public void await(long maxWaitMillis, IntConsumer onPosition) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+            int reported = 0;
+            while (true) {
+                int position;
+                lock.lock();
+                try {
+                    while (true) {
+                        if (granted) {
+                            return;
+                        }
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            queue.remove(this);
+                            done = true;
+                            throw overloaded();
+                        }
+                        position = positionOf(this);
+                        if (position != reported) {
+                            break;
+                        }
+                        dispatched.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    queue.remove(this);
+                    done = true;
+                    throw overloaded();
+                } finally {
+                    lock.unlock();
+                }
+                reported = position;
+                onPosition.accept(position);
+            }
+        }
+
+        public void await(long maxWaitMillis) {
+            await(maxWaitMillis, position -> {
+            });
+        }
+
+        /**
+         * Feeds the time-to-first-byte of a successful call into the limit.
+         */
+        public void onLatency(long latencyNanos) {
+            lock.lock();
+            try {
+                if (baselineNanos == 0 || latencyNanos < baselineNanos) {
+                    baselineNanos = latencyNanos;
+                } else {
+                    // 基线缓慢上移，避免一次偶然的极快响应永久压低限流
+                    baselineNanos = baselineNanos * 0.99 + latencyNanos * 0.01;
+                }
+                if (latencyNanos > baselineNanos * tolerance) {
+                    decrease();
+                } else {
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                    dispatch();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the slot. {@code dropped} marks an upstream error or timeout, which lowers the limit.
+         */
+        public void release(boolean dropped) {
+            lock.lock();
+            try {
+                if (done) {
+                    return;
+                }
+                done = true;
+                if (!granted) {
+                    queue.remove(this);
+                    return;
+                }
+                inFlight--;
+                if (dropped) {
+                    decrease();
+                }
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.upstream;
+
+/**
+ * Caps retries to a fraction of the traffic: every call deposits {@code ratio} tokens (up to {@code maxTokens})
+ * and every retry spends one, so during an outage retries add at most {@code ratio} extra load.
+ */
+public class RetryBudget {
+
+    private final double ratio;
+    private final double maxTokens;
+    private double tokens;
+
+    RetryBudget(double ratio, double maxTokens) {
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    public synchronized void deposit() {
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    public synchronized boolean tryWithdraw() {
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,155 @@
+package org.example.upstream;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.*;
+import org.example.model.entity.Model;
+import org.example.repository.ModelRepository;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One tuned {@link OkHttpClient} per {@link Model}: each model gets its own connection pool, so a slow provider
+ * cannot use up the connections of the others. Chat calls run synchronously on the stream threads, so the
+ * OkHttp dispatcher limits do not apply to them; the per-model cap on concurrent calls is the adaptive limit
+ * of {@link UpstreamLimiterRegistry}. Clients are rebuilt when
+ * the model's API URL or key changes, and at startup every model's host is contacted once so the first chat
+ * does not pay for TCP + TLS setup.
+ */
+@Slf4j
+@Component
+public class UpstreamClientRegistry {
+
+    private final ModelRepository modelRepository;
+    private final OkHttpClient baseClient;
+    private final int maxIdleConnections;
+    private final long keepAliveSeconds;
+    private final boolean warmUp;
+
+    private final Map<Long, ModelClient> clients = new ConcurrentHashMap<>();
+
+    private record ModelClient(String apiUrl, String apiKey, OkHttpClient client) {
+    }
+
+    public UpstreamClientRegistry(ModelRepository modelRepository,
+                                  @Value("${okhttp.connect-timeout-seconds}") int connectTimeout,
+                                  @Value("${okhttp.read-timeout-seconds}") int readTimeout,
+                                  @Value("${okhttp.write-timeout-seconds}") int writeTimeout,
+                                  @Value("${okhttp.http2:true}") boolean http2,
+                                  @Value("${okhttp.pool.max-idle-connections:20}") int maxIdleConnections,
+                                  @Value("${okhttp.pool.keep-alive-seconds:300}") long keepAliveSeconds,
+                                  @Value("${okhttp.warm-up:true}") boolean warmUp) {
+        this.modelRepository = modelRepository;
+        this.maxIdleConnections = maxIdleConnections;
+        this.keepAliveSeconds = keepAliveSeconds;
+        this.warmUp = warmUp;
+        this.baseClient = new OkHttpClient.Builder()
+                .connectTimeout(connectTimeout, TimeUnit.SECONDS)
+                .readTimeout(readTimeout, TimeUnit.SECONDS)    // 读取超时
+                .writeTimeout(writeTimeout, TimeUnit.SECONDS)   // 写入超时
+                .protocols(http2 ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+                .build();
+    }
+
+    /**
+     * Client for {@code model}, built on first use and rebuilt if the model's URL or key changed since.
+     */
+    public OkHttpClient clientFor(Model model) {
+        ModelClient current = clients.get(model.getModelId());
+        if (current != null && current.apiUrl().equals(model.getApiUrl()) && current.apiKey().equals(model.getApiKey())) {
+            return current.client();
+        }
+        ModelClient rebuilt = clients.compute(model.getModelId(), (id, existing) -> {
+            if (existing != null && existing.apiUrl().equals(model.getApiUrl())
+                    && existing.apiKey().equals(model.getApiKey())) {
+                return existing;
+            }
+            if (existing != null) {
+                close(existing.client());
+            }
+            return new ModelClient(model.getApiUrl(), model.getApiKey(), buildClient(model));
+        });
+        return rebuilt.client();
+    }
+
+    /**
+     * Client for ad-hoc calls that are not tied to a {@link Model}.
+     */
+    public OkHttpClient defaultClient() {
+        return baseClient;
+    }
+
+    /**
+     * Drops the client of a changed or deleted model; the next call builds (and warms) a fresh one.
+     */
+    public void invalidate(Long modelId) {
+        ModelClient removed = clients.remove(modelId);
+        if (removed != null) {
+            close(removed.client());
+        }
+    }
+
+    public void warmUp(Model model) {
+        HttpUrl url = HttpUrl.parse(model.getApiUrl());
+        if (url == null) {
+            log.warn("Model {} has an invalid API URL, skipping warm-up", model.getModelName());
+            return;
+        }
+        // 只为建立 TCP + TLS 连接放回连接池，响应内容不关心
+        Request request = new Request.Builder()
+                .url(url.newBuilder().encodedPath("/").query(null).build())
+                .head()
+                .build();
+        clientFor(model).newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                log.warn("Warm-up of {} failed: {}", model.getModelName(), e.getMessage());
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                response.close();
+                log.info("Warmed up connection to {} for model {}", url.host(), model.getModelName());
+            }
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpAll() {
+        if (!warmUp) {
+            return;
+        }
+        for (Model model : modelRepository.findAll()) {
+            warmUp(model);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        clients.values().forEach(modelClient -> close(modelClient.client()));
+        clients.clear();
+    }
+
+    private OkHttpClient buildClient(Model model) {
+        // 单独的 dispatcher 只为关闭时不影响其他模型的客户端（预热请求走它），不用来限流
+        return baseClient.newBuilder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .dispatcher(new Dispatcher())
+                .build();
+    }
+
+    private void close(OkHttpClient client) {
+        // 正在进行的请求不受影响，只关闭空闲连接
+        client.connectionPool().evictAll();
+        client.dispatcher().executorService().shutdown();
+    }
+}
@@ -0,0 +1,318 @@
+package org.example.upstream;
+
+import com.google.gson.JsonObject;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.example.exception.ApiException;
+import org.example.model.entity.Model;
+import org.example.model.entity.User;
+import org.example.repository.ModelRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * Single way out to the model providers for blocking (OkHttp) calls. Puts a {@link CircuitBreaker} and a
+ * {@link RetryBudget} per model in front of the {@link UpstreamClientRegistry} clients and the
+ * {@link UpstreamLimiterRegistry} limits, and fails over to {@link Model#getFallbackModelId()} when a model's
+ * breaker is open or its retries are used up.
+ * <p>
+ * Retries and failover only happen until the upstream has answered with a 2xx: once tokens may have reached a
+ * client the call is never repeated.
+ */
+@Slf4j
+@Component
+public class UpstreamGateway {
+
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final UpstreamClientRegistry clientRegistry;
+    private final UpstreamLimiterRegistry limiterRegistry;
+    private final ModelRepository modelRepository;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Long, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<Long, RetryBudget> retryBudgets = new ConcurrentHashMap<>();
+
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final long openMillis;
+    private final int halfOpenProbes;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final double budgetRatio;
+    private final double budgetMaxTokens;
+
+    private final Counter retries;
+    private final Counter failovers;
+
+    public UpstreamGateway(UpstreamClientRegistry clientRegistry,
+                           UpstreamLimiterRegistry limiterRegistry,
+                           ModelRepository modelRepository,
+                           MeterRegistry meterRegistry,
+                           @Value("${upstream.breaker.window-size:20}") int windowSize,
+                           @Value("${upstream.breaker.minimum-calls:10}") int minimumCalls,
+                           @Value("${upstream.breaker.failure-rate-threshold:0.5}") double failureRateThreshold,
+                           @Value("${upstream.breaker.open-millis:30000}") long openMillis,
+                           @Value("${upstream.breaker.half-open-probes:1}") int halfOpenProbes,
+                           @Value("${upstream.retry.max-attempts:2}") int maxAttempts,
+                           @Value("${upstream.retry.backoff-millis:100}") long backoffMillis,
+                           @Value("${upstream.retry.budget-ratio:0.2}") double budgetRatio,
+                           @Value("${upstream.retry.budget-max-tokens:10}") double budgetMaxTokens) {
+        this.clientRegistry = clientRegistry;
+        this.limiterRegistry = limiterRegistry;
+        this.modelRepository = modelRepository;
+        this.meterRegistry = meterRegistry;
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openMillis;
+        this.halfOpenProbes = halfOpenProbes;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.budgetRatio = budgetRatio;
+        this.budgetMaxTokens = budgetMaxTokens;
+        this.retries = Counter.builder("upstream.retries")
+                .description("Upstream calls retried on the same model before the first token")
+                .register(meterRegistry);
+        this.failovers = Counter.builder("upstream.failovers")
+                .description("Upstream calls moved to a fallback model")
+                .register(meterRegistry);
+    }
+
+    /**
+     * A concurrency slot (possibly still queued) on the model the call will start on.
+     */
+    public record Ticket(Model model, AdaptiveConcurrencyLimiter.Permit permit) {
+    }
+
+    /**
+     * Picks the first model of the fallback chain whose breaker lets calls through and reserves a slot on it
+     * in {@code user}'s fair-queuing flow (see {@link AdaptiveConcurrencyLimiter#reserve(String, double)}).
+     * Fails with 503 right away when the whole chain is open.
+     */
+    public Ticket reserve(Model model, User user) {
+        Model target = route(model);
+        return new Ticket(target, limiterRegistry.limiterFor(target)
+                .reserve(flowOf(user), limiterRegistry.weightOf(user)));
+    }
+
+    /**
+     * Like {@link #reserve(Model, User)} but never queues.
+     */
+    public Ticket reserveNow(Model model, User user) {
+        Model target = route(model);
+        return new Ticket(target, limiterRegistry.limiterFor(target)
+                .reserveNow(flowOf(user), limiterRegistry.weightOf(user)));
+    }
+
+    public Exchange open(Ticket ticket, JsonObject body, Consumer<Call> callSink) throws IOException {
+        return open(ticket, jsonBody(body), callSink, position -> {
+        });
+    }
+
+    public Exchange open(Ticket ticket, JsonObject body, Consumer<Call> callSink, IntConsumer onQueued)
+            throws IOException {
+        return open(ticket, jsonBody(body), callSink, onQueued);
+    }
+
+    /**
+     * Waits for the ticket's slot and sends the body {@code bodyForModel} builds for the model name actually used
+     * until some model in the chain answers with a 2xx. Every {@link Call} created is handed to
+     * {@code callSink} first so the caller can cancel it. On failure the slot is already returned; on success
+     * the caller must {@link Exchange#release(boolean)} it. While the slot is still queued, {@code onQueued}
+     * gets the queue position whenever it changes.
+     */
+    public Exchange open(Ticket ticket, Function<String, String> bodyForModel, Consumer<Call> callSink,
+                         IntConsumer onQueued) throws IOException {
+        Model model = ticket.model();
+        AdaptiveConcurrencyLimiter.Permit permit = ticket.permit();
+        permit.await(limiterRegistry.getMaxWaitMillis(), onQueued);
+
+        Set<Long> tried = new HashSet<>();
+        IOException lastError = null;
+        int attempt = 0;
+        retryBudgetFor(model).deposit();
+        while (true) {
+            CircuitBreaker breaker = breakerFor(model);
+            boolean acquired = breaker.tryAcquire();
+            if (acquired) {
+                Call call = clientRegistry.clientFor(model).newCall(buildRequest(model, bodyForModel.apply(model.getModelName())));
+                callSink.accept(call);
+                long start = System.nanoTime();
+                Response response = null;
+                try {
+                    response = call.execute();
+                } catch (IOException e) {
+                    if (call.isCanceled()) {
+                        breaker.onIgnored();
+                        permit.release(false);
+                        throw e;
+                    }
+                    breaker.onFailure();
+                    lastError = e;
+                }
+                if (response != null) {
+                    if (response.isSuccessful() && response.body() != null) {
+                        breaker.onSuccess();
+                        permit.onLatency(System.nanoTime() - start);
+                        return new Exchange(model, permit, response);
+                    }
+                    int code = response.code();
+                    response.close();
+                    lastError = new IOException("Request failed: " + code);
+                    if (!isRetryable(code)) {
+                        // 4xx 是请求本身的问题，换模型或重试都没有意义，也不计入熔断统计
+                        breaker.onIgnored();
+                        permit.release(false);
+                        throw lastError;
+                    }
+                    breaker.onFailure();
+                }
+            } else if (lastError == null) {
+                lastError = new IOException("Circuit breaker open for model " + model.getModelName());
+            }
+
+            attempt++;
+            if (acquired && attempt < maxAttempts && retryBudgetFor(model).tryWithdraw()) {
+                retries.increment();
+                try {
+                    Thread.sleep(backoffMillis * attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    permit.release(false);
+                    throw lastError;
+                }
+                continue;
+            }
+
+            tried.add(model.getModelId());
+            Model fallback = fallbackOf(model);
+            permit.release(acquired);
+            if (fallback == null || tried.contains(fallback.getModelId())
+                    || !breakerFor(fallback).isCallPermitted()) {
+                throw lastError;
+            }
+            try {
+                permit = limiterRegistry.limiterFor(fallback).reserveNow(permit.getFlow(), permit.getWeight());
+            } catch (ApiException e) {
+                throw lastError;
+            }
+            log.warn("Failing over from model {} to {}: {}", model.getModelName(), fallback.getModelName(),
+                    lastError.getMessage());
+            failovers.increment();
+            model = fallback;
+            attempt = 0;
+            retryBudgetFor(model).deposit();
+        }
+    }
+
+    public CircuitBreaker breakerFor(Model model) {
+        return breakers.computeIfAbsent(model.getModelId(), id -> {
+            CircuitBreaker breaker = new CircuitBreaker(windowSize, minimumCalls, failureRateThreshold,
+                    openMillis, halfOpenProbes);
+            Gauge.builder("upstream.breaker.state", breaker, b -> b.getState().ordinal())
+                    .description("0 closed, 1 open, 2 half-open")
+                    .tag("model", model.getModelName())
+                    .register(meterRegistry);
+            return breaker;
+        });
+    }
+
+    private RetryBudget retryBudgetFor(Model model) {
+        return retryBudgets.computeIfAbsent(model.getModelId(), id -> new RetryBudget(budgetRatio, budgetMaxTokens));
+    }
+
+    private static String flowOf(User user) {
+        return user != null ? "user:" + user.getUserId() : "anonymous";
+    }
+
+    private Model route(Model model) {
+        Set<Long> visited = new HashSet<>();
+        Model current = model;
+        while (current != null && visited.add(current.getModelId())) {
+            if (breakerFor(current).isCallPermitted()) {
+                return current;
+            }
+            current = fallbackOf(current);
+        }
+        long retryAfterSeconds = Math.max(1, (breakerFor(model).getRetryAfterMillis() + 999) / 1000);
+        throw ApiException.retryLater("Model " + model.getModelName() + " is temporarily unavailable, please retry later",
+                HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds);
+    }
+
+    private Model fallbackOf(Model model) {
+        if (model.getFallbackModelId() == null) {
+            return null;
+        }
+        return modelRepository.findById(model.getFallbackModelId()).orElse(null);
+    }
+
+    private static Function<String, String> jsonBody(JsonObject body) {
+        return modelName -> {
+            body.addProperty("model", modelName);
+            return body.toString();
+        };
+    }
+
+    private Request buildRequest(Model model, String body) {
+        return new Request.Builder()
+                .url(model.getApiUrl())
+                .post(RequestBody.create(body, JSON))
+                .addHeader("Authorization", "Bearer " + model.getApiKey())
+                .addHeader("Content-Type", "application/json")
+                .build();
+    }
+
+    private static boolean isRetryable(int code) {
+        return code >= 500 || code == 429;
+    }
+
+    /**
+     * A 2xx response and the concurrency slot it holds.
+     */
+    public static class Exchange {
+        private final Model model;
+        private final AdaptiveConcurrencyLimiter.Permit permit;
+        private final Response response;
+
+        private Exchange(Model model, AdaptiveConcurrencyLimiter.Permit permit, Response response) {
+            this.model = model;
+            this.permit = permit;
+            this.response = response;
+        }
+
+        public Model getModel() {
+            return model;
+        }
+
+        public Response getResponse() {
+            return response;
+        }
+
+        /**
+         * Closes the response and returns the slot; {@code dropped} marks a mid-stream upstream failure.
+         */
+        public void release(boolean dropped) {
+            response.close();
+            permit.release(dropped);
+        }
+    }
+}
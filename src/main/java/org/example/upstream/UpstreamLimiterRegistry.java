@@ -0,0 +1,103 @@
+package org.example.upstream;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.model.entity.Model;
+import org.example.model.entity.User;
+import org.example.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One {@link AdaptiveConcurrencyLimiter} per model, with its limit, in-flight and queued counts published as
+ * {@code upstream.concurrency.*} gauges tagged by model name, and the per-user weights its fair queue uses.
+ */
+@Component
+public class UpstreamLimiterRegistry {
+
+    private final Map<Long, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final UserRepository userRepository;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int queueCapacity;
+    private final double backoffRatio;
+    private final double tolerance;
+    private final long retryAfterSeconds;
+    private final long maxWaitMillis;
+    private final double adminWeight;
+    private final double premiumWeight;
+    private final double userWeight;
+    private final BigDecimal premiumCredits;
+
+    public UpstreamLimiterRegistry(MeterRegistry meterRegistry,
+                                   UserRepository userRepository,
+                                   @Value("${upstream.limiter.initial-limit:20}") int initialLimit,
+                                   @Value("${upstream.limiter.min-limit:2}") int minLimit,
+                                   @Value("${upstream.limiter.max-limit:500}") int maxLimit,
+                                   @Value("${upstream.limiter.queue-capacity:50}") int queueCapacity,
+                                   @Value("${upstream.limiter.max-wait-millis:2000}") long maxWaitMillis,
+                                   @Value("${upstream.limiter.backoff-ratio:0.9}") double backoffRatio,
+                                   @Value("${upstream.limiter.latency-tolerance:2.0}") double tolerance,
+                                   @Value("${upstream.limiter.retry-after-seconds:2}") long retryAfterSeconds,
+                                   @Value("${upstream.scheduler.weights.admin:4}") double adminWeight,
+                                   @Value("${upstream.scheduler.weights.premium:2}") double premiumWeight,
+                                   @Value("${upstream.scheduler.weights.user:1}") double userWeight,
+                                   @Value("${upstream.scheduler.premium-credits:1000}") BigDecimal premiumCredits) {
+        this.meterRegistry = meterRegistry;
+        this.userRepository = userRepository;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.queueCapacity = queueCapacity;
+        this.maxWaitMillis = maxWaitMillis;
+        this.backoffRatio = backoffRatio;
+        this.tolerance = tolerance;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.adminWeight = adminWeight;
+        this.premiumWeight = premiumWeight;
+        this.userWeight = userWeight;
+        this.premiumCredits = premiumCredits;
+    }
+
+    public AdaptiveConcurrencyLimiter limiterFor(Model model) {
+        return limiters.computeIfAbsent(model.getModelId(), id -> {
+            AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(model.getModelName(),
+                    initialLimit, minLimit, maxLimit, queueCapacity, backoffRatio, tolerance, retryAfterSeconds);
+            Gauge.builder("upstream.concurrency.limit", limiter, AdaptiveConcurrencyLimiter::getLimit)
+                    .tag("model", model.getModelName())
+                    .register(meterRegistry);
+            Gauge.builder("upstream.concurrency.inflight", limiter, AdaptiveConcurrencyLimiter::getInFlight)
+                    .tag("model", model.getModelName())
+                    .register(meterRegistry);
+            Gauge.builder("upstream.concurrency.queued", limiter, AdaptiveConcurrencyLimiter::getWaiting)
+                    .tag("model", model.getModelName())
+                    .register(meterRegistry);
+            return limiter;
+        });
+    }
+
+    /**
+     * Fair-queuing weight of {@code user}'s calls: by role, and for regular users by credit balance.
+     */
+    public double weightOf(User user) {
+        if (user == null) {
+            return userWeight;
+        }
+        if (user.getRole() == User.Role.ADMIN) {
+            return adminWeight;
+        }
+        // 会话缓存里的 User 可能是很久以前加载的，余额要现查
+        BigDecimal credits = user.getUserId() != null ? userRepository.findCreditsByUserId(user.getUserId()) : null;
+        return credits != null && credits.compareTo(premiumCredits) >= 0 ? premiumWeight : userWeight;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+}
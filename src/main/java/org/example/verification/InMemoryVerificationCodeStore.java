@@ -0,0 +1,99 @@
+package org.example.verification;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps codes in this JVM. Each operation runs inside {@link ConcurrentHashMap#compute}, so checks and updates
+ * for one key cannot interleave.
+ */
+@Component
+@ConditionalOnProperty(name = "verification.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryVerificationCodeStore implements VerificationCodeStore {
+
+    private record Code(String code, long issuedAt, long expiresAt, int failedAttempts) {
+    }
+
+    private record Window(long endsAt, int hits) {
+    }
+
+    private final Map<String, Code> codes = new ConcurrentHashMap<>();
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean issue(String email, String code, long now, long cooldownMillis, long ttlMillis) {
+        boolean[] issued = new boolean[1];
+        codes.compute(email, (key, current) -> {
+            if (current != null && now - current.issuedAt() < cooldownMillis) {
+                return current;
+            }
+            issued[0] = true;
+            return new Code(code, now, now + ttlMillis, 0);
+        });
+        return issued[0];
+    }
+
+    @Override
+    public boolean verify(String email, String code, long now, int maxAttempts) {
+        boolean[] matched = new boolean[1];
+        codes.computeIfPresent(email, (key, current) -> {
+            if (current.expiresAt() <= now) {
+                return null;
+            }
+            if (current.failedAttempts() >= maxAttempts) {
+                // 保留记录，冷却时间仍按原发送时间计算
+                return current;
+            }
+            if (equals(current.code(), code)) {
+                matched[0] = true;
+                return current;
+            }
+            return new Code(current.code(), current.issuedAt(), current.expiresAt(), current.failedAttempts() + 1);
+        });
+        return matched[0];
+    }
+
+    @Override
+    public void remove(String email) {
+        codes.remove(email);
+    }
+
+    @Override
+    public void remove(String email, String code) {
+        codes.computeIfPresent(email, (key, current) -> current.code().equals(code) ? null : current);
+    }
+
+    @Override
+    public boolean tryAcquire(String key, int limit, long now, long windowMillis) {
+        boolean[] acquired = new boolean[1];
+        windows.compute(key, (k, current) -> {
+            if (current == null || current.endsAt() <= now) {
+                acquired[0] = true;
+                return new Window(now + windowMillis, 1);
+            }
+            if (current.hits() >= limit) {
+                return current;
+            }
+            acquired[0] = true;
+            return new Window(current.endsAt(), current.hits() + 1);
+        });
+        return acquired[0];
+    }
+
+    @Override
+    public void purgeExpired(long now) {
+        codes.values().removeIf(code -> code.expiresAt() <= now);
+        windows.values().removeIf(window -> window.endsAt() <= now);
+    }
+
+    // 常量时间比较，避免按响应时间逐位猜测
+    private static boolean equals(String expected, String actual) {
+        return actual != null && MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8),
+                actual.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,63 @@
+package org.example.verification;
+
+import org.example.repository.VerificationCodeRepository;
+import org.example.repository.VerificationRateLimitRepository;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+
+/**
+ * Keeps codes in the {@code verification_codes} and {@code verification_rate_limits} tables, so every node
+ * sees the same codes and counters. Issuing and counting are single upserts, and a guess is checked and counted
+ * in one conditional {@code UPDATE ... RETURNING}, so concurrent guesses cannot exceed the attempt limit.
+ */
+@Component
+@ConditionalOnProperty(name = "verification.store", havingValue = "postgres")
+public class PostgresVerificationCodeStore implements VerificationCodeStore {
+
+    private final VerificationCodeRepository codeRepository;
+    private final VerificationRateLimitRepository rateLimitRepository;
+
+    public PostgresVerificationCodeStore(VerificationCodeRepository codeRepository,
+                                         VerificationRateLimitRepository rateLimitRepository) {
+        this.codeRepository = codeRepository;
+        this.rateLimitRepository = rateLimitRepository;
+    }
+
+    @Override
+    public boolean issue(String email, String code, long now, long cooldownMillis, long ttlMillis) {
+        return codeRepository.issue(email, code, new Timestamp(now), new Timestamp(now + ttlMillis),
+                new Timestamp(now - cooldownMillis)) > 0;
+    }
+
+    @Override
+    public boolean verify(String email, String code, long now, int maxAttempts) {
+        if (code == null) {
+            return false;
+        }
+        return Boolean.TRUE.equals(codeRepository.verify(email, code, new Timestamp(now), maxAttempts));
+    }
+
+    @Override
+    public void remove(String email) {
+        codeRepository.deleteByEmail(email);
+    }
+
+    @Override
+    public void remove(String email, String code) {
+        codeRepository.deleteByEmailAndCode(email, code);
+    }
+
+    @Override
+    public boolean tryAcquire(String key, int limit, long now, long windowMillis) {
+        return rateLimitRepository.tryAcquire(key, limit, new Timestamp(now), new Timestamp(now + windowMillis)) > 0;
+    }
+
+    @Override
+    public void purgeExpired(long now) {
+        Timestamp timestamp = new Timestamp(now);
+        codeRepository.deleteExpired(timestamp);
+        rateLimitRepository.deleteExpired(timestamp);
+    }
+}
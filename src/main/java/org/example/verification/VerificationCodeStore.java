@@ -0,0 +1,42 @@
+package org.example.verification;
+
+/**
+ * Where verification codes and the request counters guarding them live. Every method is atomic on its own, so
+ * concurrent requests for the same email or client cannot both pass a check. {@code verification.store} selects
+ * {@code memory} (single node) or {@code postgres} (shared by every node behind the load balancer).
+ */
+public interface VerificationCodeStore {
+
+    /**
+     * Stores {@code code} for {@code email} unless a code was issued for it less than {@code cooldownMillis} ago.
+     *
+     * @return false when the email is still cooling down
+     */
+    boolean issue(String email, String code, long now, long cooldownMillis, long ttlMillis);
+
+    /**
+     * Checks {@code code} against the stored one. A wrong guess counts against the code, and once
+     * {@code maxAttempts} guesses have failed the code stops matching until a new one is issued.
+     */
+    boolean verify(String email, String code, long now, int maxAttempts);
+
+    void remove(String email);
+
+    /**
+     * Removes the code for {@code email} only while it is still {@code code}, so a late report about an older
+     * email cannot drop a code issued after it.
+     */
+    void remove(String email, String code);
+
+    /**
+     * Counts one hit on {@code key} in a fixed window of {@code windowMillis}.
+     *
+     * @return false when the window already holds {@code limit} hits
+     */
+    boolean tryAcquire(String key, int limit, long now, long windowMillis);
+
+    /**
+     * Drops expired codes and finished counter windows.
+     */
+    void purgeExpired(long now);
+}
@@ -0,0 +1,93 @@
+package org.example.cache;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.model.entity.Bot;
+import org.example.model.entity.Model;
+import org.example.model.entity.Session;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ResponseCacheTest {
+
+    private final AtomicInteger embeddings = new AtomicInteger();
+    private final Session session = session();
+
+    // 按问句里的关键词给出向量，相同关键词的问句视为语义相同
+    private final EmbeddingModel embeddingModel = segments -> {
+        embeddings.incrementAndGet();
+        List<Embedding> vectors = segments.stream()
+                .map(segment -> segment.text().contains("weather")
+                        ? Embedding.from(new float[]{1, 0}) : Embedding.from(new float[]{0, 1}))
+                .toList();
+        return Response.from(vectors);
+    };
+
+    private final ResponseCache cache = cache();
+
+    @Test
+    void exactHitDoesNotEmbedTheMessage() {
+        cache.put(cache.lookupFor(session, "What's the weather?"), "Sunny");
+        embeddings.set(0);
+
+        ResponseCache.Hit hit = cache.get(cache.lookupFor(session, "  what's the WEATHER "));
+
+        assertNotNull(hit);
+        assertEquals(ResponseCache.EXACT, hit.tier());
+        assertEquals(0, embeddings.get());
+    }
+
+    @Test
+    void exactMissFallsBackToTheSemanticTier() {
+        cache.put(cache.lookupFor(session, "What's the weather?"), "Sunny");
+
+        ResponseCache.Hit hit = cache.get(cache.lookupFor(session, "How is the weather today"));
+
+        assertNotNull(hit);
+        assertEquals(ResponseCache.SEMANTIC, hit.tier());
+        assertEquals("Sunny", hit.content());
+        assertNull(cache.get(cache.lookupFor(session, "Tell me a joke")));
+    }
+
+    @Test
+    void missedMessageIsEmbeddedOnceForLookupAndStore() {
+        cache.put(cache.lookupFor(session, "Tell me a joke"), "No");
+        embeddings.set(0);
+
+        ResponseCache.Lookup lookup = cache.lookupFor(session, "What's the weather?");
+        assertNull(cache.get(lookup));
+        cache.put(lookup, "Sunny");
+
+        assertEquals(1, embeddings.get());
+    }
+
+    private ResponseCache cache() {
+        StaticListableBeanFactory beanFactory = new StaticListableBeanFactory();
+        beanFactory.addBean("embeddingModel", embeddingModel);
+        return new ResponseCache(beanFactory.getBeanProvider(EmbeddingModel.class), new SimpleMeterRegistry(),
+                true, 100, 60, true, 0.95, 100, new BigDecimal("0.2"), 6, 120);
+    }
+
+    private static Session session() {
+        Model model = new Model();
+        model.setModelId(1L);
+        Bot bot = new Bot();
+        bot.setBotId(7L);
+        bot.setBotType(Bot.BotType.OFFICIAL);
+        bot.setModel(model);
+        bot.setPrompt("You are helpful.");
+        Session session = new Session();
+        session.setBot(bot);
+        return session;
+    }
+}
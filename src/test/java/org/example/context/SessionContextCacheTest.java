@@ -0,0 +1,95 @@
+package org.example.context;
+
+import org.example.model.entity.ChatHistory;
+import org.example.model.entity.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionContextCacheTest {
+
+    private static final long SESSION = 42L;
+
+    private final SessionContextCache cache = new SessionContextCache(1 << 20, 1800);
+
+    @AfterEach
+    void tearDown() {
+        cache.shutdown();
+    }
+
+    @Test
+    void loadedEntryIsInstalledWhenNothingChanged() {
+        long stamp = cache.stamp(SESSION);
+        SessionContextCache.Entry entry = entry(1L);
+
+        assertTrue(cache.put(SESSION, stamp, entry));
+        assertSame(entry, cache.get(SESSION));
+    }
+
+    @Test
+    void invalidateDuringLoadKeepsStaleEntryOut() {
+        long stamp = cache.stamp(SESSION);
+        SessionContextCache.Entry stale = entry(1L);
+        cache.invalidate(SESSION);
+
+        assertFalse(cache.put(SESSION, stamp, stale));
+        assertNull(cache.get(SESSION));
+    }
+
+    @Test
+    void appendDuringLoadKeepsIncompleteEntryOut() {
+        long stamp = cache.stamp(SESSION);
+        // 加载时还没读到第 2 条消息
+        SessionContextCache.Entry loaded = entry(1L);
+        cache.append(message(2L), 5);
+
+        assertFalse(cache.put(SESSION, stamp, loaded));
+        assertNull(cache.get(SESSION));
+    }
+
+    @Test
+    void appendAfterInstallReachesEntry() {
+        assertTrue(cache.put(SESSION, cache.stamp(SESSION), entry(1L)));
+        cache.append(message(2L), 5);
+
+        List<Long> ids = cache.get(SESSION).read(fragments -> fragments.stream()
+                .map(SessionContextCache.Fragment::id)
+                .toList());
+        assertEquals(List.of(1L, 2L), ids);
+    }
+
+    @Test
+    void otherSessionsDoNotBlockInstall() {
+        long stamp = cache.stamp(SESSION);
+        cache.invalidate(SESSION + 1);
+
+        assertTrue(cache.put(SESSION, stamp, entry(1L)));
+    }
+
+    private static SessionContextCache.Entry entry(long... ids) {
+        List<SessionContextCache.Fragment> fragments = new ArrayList<>();
+        for (long id : ids) {
+            fragments.add(new SessionContextCache.Fragment(id, "{\"role\":\"user\",\"content\":\"m" + id + "\"}", 5));
+        }
+        return new SessionContextCache.Entry(new Session(), null, 10, fragments, true, 1000);
+    }
+
+    private static ChatHistory message(long id) {
+        Session session = new Session();
+        session.setSessionId(SESSION);
+        ChatHistory chatHistory = new ChatHistory();
+        chatHistory.setId(id);
+        chatHistory.setSession(session);
+        chatHistory.setSenderRole(ChatHistory.SenderRole.USER);
+        chatHistory.setContent("m" + id);
+        return chatHistory;
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.prediction;
+
+import org.example.repository.ChatHistoryRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.Pageable;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class NgramSuggestionEngineTest {
+
+    private static final long BOT = 7L;
+    private static final String QUESTION = "hello there, what can you do";
+    private static final String PRIVATE = "my email is alice@example.com call me";
+    private static final String COMMON = "how much does the pro plan cost";
+
+    @TempDir
+    Path dir;
+
+    private final List<NgramSuggestionEngine> engines = new ArrayList<>();
+    private long nextId = 1;
+
+    @AfterEach
+    void tearDown() {
+        engines.forEach(NgramSuggestionEngine::shutdown);
+    }
+
+    @Test
+    void messageOfOneUserIsNeverSuggestedToAnother() throws InterruptedException {
+        List<UserTurn> turns = new ArrayList<>();
+        // 同一个用户在很多会话里都发过，仍然只算一个人
+        for (long session = 1; session <= 10; session++) {
+            conversation(turns, session, 1L, PRIVATE);
+        }
+        NgramSuggestionEngine engine = start(turns);
+
+        assertFalse(engine.suggest(BOT, QUESTION, 3).contains(PRIVATE));
+    }
+
+    @Test
+    void messageSentByEnoughUsersIsSuggested() throws InterruptedException {
+        List<UserTurn> turns = new ArrayList<>();
+        conversation(turns, 1L, 1L, COMMON);
+        conversation(turns, 2L, 2L, COMMON);
+        conversation(turns, 3L, 3L, COMMON);
+        conversation(turns, 4L, 4L, PRIVATE);
+        NgramSuggestionEngine engine = start(turns);
+
+        assertEquals(List.of(COMMON), engine.suggest(BOT, QUESTION, 3));
+    }
+
+    @Test
+    void supportIsKeptAcrossSnapshots() throws InterruptedException {
+        List<UserTurn> turns = new ArrayList<>();
+        conversation(turns, 1L, 1L, COMMON);
+        conversation(turns, 2L, 2L, COMMON);
+        conversation(turns, 3L, 3L, PRIVATE);
+        conversation(turns, 4L, 3L, PRIVATE);
+        NgramSuggestionEngine first = start(turns);
+        assertTrue(first.suggest(BOT, QUESTION, 3).isEmpty());
+        first.shutdown();
+
+        // 从快照恢复后再来一个用户，COMMON 凑够三个人，PRIVATE 仍然只有一个人
+        List<UserTurn> more = new ArrayList<>();
+        conversation(more, 5L, 4L, COMMON);
+        conversation(more, 6L, 3L, PRIVATE);
+        NgramSuggestionEngine second = start(more);
+
+        assertEquals(List.of(COMMON), second.suggest(BOT, QUESTION, 3));
+    }
+
+    private void conversation(List<UserTurn> turns, long sessionId, long userId, String followUp) {
+        turns.add(new UserTurn(nextId++, sessionId, userId, BOT, QUESTION));
+        turns.add(new UserTurn(nextId++, sessionId, userId, BOT, followUp));
+    }
+
+    private NgramSuggestionEngine start(List<UserTurn> turns) throws InterruptedException {
+        ChatHistoryRepository repository = mock(ChatHistoryRepository.class);
+        when(repository.findUserTurnsAfter(anyLong(), any(Pageable.class))).thenReturn(turns, List.of());
+        NgramSuggestionEngine engine = new NgramSuggestionEngine(repository, true,
+                dir.resolve("suggestions.bin").toString(), 10, 20000, 32, 80, 1.0, 3, 1000, 1000);
+        engines.add(engine);
+        engine.start();
+        for (int i = 0; i < 500 && !engine.isReady(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(engine.isReady());
+        return engine;
+    }
+}
@@ -0,0 +1,79 @@
+package org.example.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBucketLimiterTest {
+
+    private final TokenBucketLimiter limiter = new TokenBucketLimiter(100);
+
+    @Test
+    void burstOfCapacityIsAllowedThenRefillRateApplies() {
+        // 容量 3，每分钟回 60 个：每秒一个
+        TokenBucketLimiter.Decision first = limiter.tryAcquire("u", 3, 60);
+        TokenBucketLimiter.Decision second = limiter.tryAcquire("u", 3, 60);
+        TokenBucketLimiter.Decision third = limiter.tryAcquire("u", 3, 60);
+        TokenBucketLimiter.Decision fourth = limiter.tryAcquire("u", 3, 60);
+
+        assertTrue(first.allowed());
+        assertEquals(2, first.remaining());
+        assertEquals(1, second.remaining());
+        assertEquals(0, third.remaining());
+        assertFalse(fourth.allowed());
+        assertEquals(0, fourth.remaining());
+    }
+
+    @Test
+    void resetAndRetryAfterFollowTheTheoreticalArrivalTime() {
+        TokenBucketLimiter.Decision first = limiter.tryAcquire("u", 3, 60);
+        // 用掉一个，一秒后回满
+        assertBetween(900, 1000, first.resetMillis());
+        assertEquals(0, first.retryAfterMillis());
+
+        limiter.tryAcquire("u", 3, 60);
+        limiter.tryAcquire("u", 3, 60);
+        TokenBucketLimiter.Decision denied = limiter.tryAcquire("u", 3, 60);
+
+        // 三个都用掉：三秒后回满，一秒后才有下一个
+        assertBetween(2900, 3000, denied.resetMillis());
+        assertBetween(900, 1000, denied.retryAfterMillis());
+    }
+
+    @Test
+    void tokensComeBackAtTheRefillRate() throws InterruptedException {
+        // 每分钟 6000 个：每 10 毫秒一个
+        assertTrue(limiter.tryAcquire("u", 1, 6000).allowed());
+        assertFalse(limiter.tryAcquire("u", 1, 6000).allowed());
+
+        Thread.sleep(15);
+
+        assertTrue(limiter.tryAcquire("u", 1, 6000).allowed());
+    }
+
+    @Test
+    void keysHaveTheirOwnBuckets() {
+        assertTrue(limiter.tryAcquire("a", 1, 60).allowed());
+        assertFalse(limiter.tryAcquire("a", 1, 60).allowed());
+
+        assertTrue(limiter.tryAcquire("b", 1, 60).allowed());
+    }
+
+    @Test
+    void evictingFullBucketsDoesNotResetBusyOnes() {
+        TokenBucketLimiter small = new TokenBucketLimiter(1);
+        assertTrue(small.tryAcquire("busy", 1, 60).allowed());
+
+        for (int i = 0; i < 10; i++) {
+            small.tryAcquire("other" + i, 1, 60);
+        }
+
+        assertFalse(small.tryAcquire("busy", 1, 60).allowed());
+    }
+
+    private static void assertBetween(long min, long max, long actual) {
+        assertTrue(actual >= min && actual <= max, "expected " + min + ".." + max + " but was " + actual);
+    }
+}
@@ -0,0 +1,65 @@
+package org.example.security;
+
+import org.example.model.entity.User;
+import org.example.repository.UserRepository;
+import org.example.util.JwtUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TokenAuthenticatorTest {
+
+    private static final long USER_ID = 5L;
+
+    private final JwtUtil jwtUtil = new JwtUtil();
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final User stored = new User();
+    private final String token;
+
+    TokenAuthenticatorTest() {
+        ReflectionTestUtils.setField(jwtUtil, "secret", "test-secret");
+        ReflectionTestUtils.setField(jwtUtil, "expiration", 3_600_000L);
+        token = jwtUtil.generateToken(new AuthUser(USER_ID, "alice", null, User.Role.USER, 0));
+        stored.setUserId(USER_ID);
+        stored.setTokenVersion(0);
+        when(userRepository.findById(USER_ID)).thenReturn(Optional.of(stored));
+    }
+
+    @Test
+    void knownVersionIsServedFromMemoryWithinTtl() {
+        TokenAuthenticator authenticator = new TokenAuthenticator(jwtUtil, userRepository, 100, 3600);
+
+        assertNotNull(authenticator.authenticate(token));
+        assertNotNull(authenticator.authenticate(token));
+        verify(userRepository, times(1)).findById(USER_ID);
+    }
+
+    @Test
+    void revocationOnAnotherNodeIsSeenOnceTheKnownVersionExpires() {
+        TokenAuthenticator authenticator = new TokenAuthenticator(jwtUtil, userRepository, 100, 0);
+        assertNotNull(authenticator.authenticate(token));
+
+        // 另一个实例重置了密码，本实例从未收到 revoke
+        stored.setTokenVersion(1);
+
+        assertNull(authenticator.authenticate(token));
+    }
+
+    @Test
+    void localRevocationRejectsRightAway() {
+        TokenAuthenticator authenticator = new TokenAuthenticator(jwtUtil, userRepository, 100, 3600);
+        assertNotNull(authenticator.authenticate(token));
+
+        authenticator.revoke(USER_ID, 1);
+
+        assertNull(authenticator.authenticate(token));
+    }
+}
@@ -0,0 +1,215 @@
+package org.example.service.impl;
+
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.exception.ApiException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EmailServiceImplTest {
+
+    @RegisterExtension
+    static final GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+    private EmailServiceImpl emailService;
+
+    @BeforeEach
+    void setUp() {
+        mailSender.setHost("localhost");
+        mailSender.setPort(greenMail.getSmtp().getPort());
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (emailService != null) {
+            emailService.shutdown();
+        }
+    }
+
+    @Test
+    void queuedEmailsAreDeliveredInBatchesAndReported() throws Exception {
+        start(4, 50);
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            results.add(emailService.sendEmail("user" + i + "@example.com", "Code", "<p>" + i + "</p>"));
+        }
+
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        assertEquals(30, greenMail.getReceivedMessages().length);
+        assertEquals(30, deliveries("sent"));
+        assertEquals(0, deliveries("failed"));
+    }
+
+    @Test
+    void failedSendIsRetriedUntilTheServerAnswers() throws Exception {
+        mailSender.setPort(unusedPort());
+        start(5, 100);
+
+        CompletableFuture<Void> result = emailService.sendEmail("user@example.com", "Code", "<p>1</p>");
+        await(() -> deliveries("retried") >= 1);
+        mailSender.setPort(greenMail.getSmtp().getPort());
+
+        result.get(10, TimeUnit.SECONDS);
+        assertEquals(1, greenMail.getReceivedMessages().length);
+        assertEquals(1, deliveries("sent"));
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() {
+        mailSender.setPort(unusedPort());
+        start(3, 10);
+
+        CompletableFuture<Void> result = emailService.sendEmail("user@example.com", "Code", "<p>1</p>");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(ApiException.class, e.getCause());
+        assertEquals(2, deliveries("retried"));
+        assertEquals(1, deliveries("failed"));
+    }
+
+    @Test
+    void shutdownFailsEmailsWaitingForRetry() throws Exception {
+        mailSender.setPort(unusedPort());
+        start(4, 60_000);
+
+        CompletableFuture<Void> result = emailService.sendEmail("user@example.com", "Code", "<p>1</p>");
+        await(() -> deliveries("retried") >= 1);
+        emailService.shutdown();
+
+        assertTrue(result.isCompletedExceptionally());
+    }
+
+    @Test
+    void temporarySmtpRejectionIsRetried() throws Exception {
+        try (RejectingSmtpServer server = new RejectingSmtpServer("451 4.3.0 Local error, try again")) {
+            mailSender.setPort(server.port());
+            start(5, 100);
+
+            CompletableFuture<Void> result = emailService.sendEmail("user@example.com", "Code", "<p>1</p>");
+            await(() -> deliveries("retried") >= 1);
+            mailSender.setPort(greenMail.getSmtp().getPort());
+
+            result.get(10, TimeUnit.SECONDS);
+            assertEquals(1, greenMail.getReceivedMessages().length);
+        }
+    }
+
+    @Test
+    void permanentSmtpRejectionFailsWithoutRetry() throws Exception {
+        try (RejectingSmtpServer server = new RejectingSmtpServer("550 5.1.1 Mailbox unavailable")) {
+            mailSender.setPort(server.port());
+            start(5, 100);
+
+            CompletableFuture<Void> result = emailService.sendEmail("user@example.com", "Code", "<p>1</p>");
+
+            assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+            assertEquals(0, deliveries("retried"));
+            assertEquals(1, deliveries("failed"));
+        }
+    }
+
+    private void start(int maxAttempts, long retryBackoffMillis) {
+        emailService = new EmailServiceImpl(mailSender, meterRegistry, "AI Bot Platform <bot@example.com>",
+                1, 100, 20, maxAttempts, retryBackoffMillis, 30, 5);
+    }
+
+    private long deliveries(String result) {
+        return (long) meterRegistry.get("email.deliveries").tag("result", result).counter().count();
+    }
+
+    private static int unusedPort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Minimal SMTP server that accepts every command but answers MAIL FROM with the given reply.
+     */
+    private static final class RejectingSmtpServer implements AutoCloseable {
+
+        private final ServerSocket serverSocket;
+        private final Thread acceptor;
+
+        RejectingSmtpServer(String mailReply) throws IOException {
+            serverSocket = new ServerSocket(0);
+            acceptor = new Thread(() -> {
+                while (!serverSocket.isClosed()) {
+                    try (Socket socket = serverSocket.accept();
+                         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                 StandardCharsets.US_ASCII));
+                         Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII)) {
+                        reply(out, "220 localhost ESMTP");
+                        String line;
+                        while ((line = in.readLine()) != null) {
+                            String command = line.toUpperCase();
+                            if (command.startsWith("MAIL")) {
+                                reply(out, mailReply);
+                            } else if (command.startsWith("QUIT")) {
+                                reply(out, "221 Bye");
+                                break;
+                            } else {
+                                reply(out, "250 OK");
+                            }
+                        }
+                    } catch (IOException e) {
+                        // 服务器关闭或客户端断开
+                    }
+                }
+            }, "rejecting-smtp");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port() {
+            return serverSocket.getLocalPort();
+        }
+
+        private static void reply(Writer out, String reply) throws IOException {
+            out.write(reply + "\r\n");
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
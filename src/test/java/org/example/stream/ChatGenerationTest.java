@@ -0,0 +1,168 @@
+package org.example.stream;
+
+import org.example.model.entity.Bot;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatGenerationTest {
+
+    private static final int RING = 4;
+
+    private final ChatGeneration generation = new ChatGeneration(new ChatGeneration.Key(1L, 2L), new Bot(), RING);
+
+    @Test
+    void upstreamIsClaimedOnce() {
+        assertTrue(generation.claimUpstream());
+        assertFalse(generation.claimUpstream());
+    }
+
+    @Test
+    void lateSubscriberGetsTheWholeAnswerIncludingEvictedEvents() {
+        publish(1, 10);
+        generation.complete();
+
+        RecordingEmitter emitter = attach(0);
+
+        assertEquals(expected(1, 10), emitter.text());
+        assertEquals("10", emitter.events.get(0).id());
+        assertEquals("[DONE]", emitter.last().data());
+    }
+
+    @Test
+    void resumeFromAnEvictedEventGetsExactlyTheMissingPart() {
+        publish(1, 10);
+        generation.complete();
+
+        // 事件 4..6 已经被挤出 ring
+        assertEquals(expected(4, 10), attach(3).text());
+        assertEquals(expected(2, 10), attach(1).text());
+    }
+
+    @Test
+    void resumeFromAnEventStillInTheRing() {
+        publish(1, 10);
+        generation.complete();
+
+        assertEquals(expected(9, 10), attach(8).text());
+        assertEquals("", attach(10).text());
+    }
+
+    @Test
+    void replayDoesNotTripTheOverflowPolicy() {
+        publish(1, 10);
+        RecordingEmitter emitter = new RecordingEmitter();
+        StreamRelay relay = new StreamRelay(emitter, () -> { }, 1, StreamRelay.OverflowPolicy.DISCONNECT, 0, 1 << 16);
+        generation.attach(relay, 0);
+        generation.complete();
+
+        relay.drain();
+
+        assertFalse(relay.isDisconnected());
+        assertEquals(expected(1, 10), emitter.text());
+    }
+
+    @Test
+    void attachedSubscriberFollowsTheLiveTail() {
+        publish(1, 2);
+        RecordingEmitter emitter = new RecordingEmitter();
+        StreamRelay relay = relay(emitter);
+        generation.attach(relay, 0);
+        publish(3, 6);
+        generation.complete();
+
+        relay.drain();
+
+        assertEquals(expected(1, 6), emitter.text());
+        assertEquals("raw1raw2raw3raw4raw5raw6", generation.getText());
+    }
+
+    @Test
+    void subscriberOfAFailedGenerationGetsTheFailure() {
+        publish(1, 2);
+        IllegalStateException failure = new IllegalStateException("upstream failed");
+        generation.fail(failure);
+
+        RecordingEmitter emitter = attach(0);
+
+        assertEquals(expected(1, 2), emitter.text());
+        assertSame(failure, emitter.error);
+        assertFalse(generation.isReusable());
+    }
+
+    @Test
+    void upstreamIsCancelledWhenTheLastClientStaysAway() {
+        AtomicInteger cancels = new AtomicInteger();
+        generation.onCancel(cancels::incrementAndGet);
+        StreamRelay relay = relay(new RecordingEmitter());
+        generation.attach(relay, 0);
+
+        assertTrue(generation.detach(relay, "client left"));
+        generation.cancelIfUnattended();
+
+        assertEquals(1, cancels.get());
+        assertEquals("client left", generation.getCancelReason());
+    }
+
+    @Test
+    void reattachWithinTheGracePeriodKeepsTheUpstream() {
+        AtomicInteger cancels = new AtomicInteger();
+        generation.onCancel(cancels::incrementAndGet);
+        StreamRelay first = relay(new RecordingEmitter());
+        generation.attach(first, 0);
+
+        generation.detach(first, "client left");
+        generation.attach(relay(new RecordingEmitter()), 0);
+        generation.cancelIfUnattended();
+
+        assertEquals(0, cancels.get());
+        assertNull(generation.getCancelReason());
+    }
+
+    @Test
+    void detachedClientsSenderThreadExits() throws InterruptedException {
+        StreamRelay relay = relay(new RecordingEmitter());
+        generation.attach(relay, 0);
+        Thread sender = new Thread(relay::drain);
+        sender.start();
+
+        // emitter 超时后只会 detach，生成方不会再对这个 relay 调用 complete
+        generation.detach(relay, "timeout");
+        generation.complete();
+
+        sender.join(2000);
+        assertFalse(sender.isAlive());
+    }
+
+    private RecordingEmitter attach(long lastEventId) {
+        RecordingEmitter emitter = new RecordingEmitter();
+        StreamRelay relay = relay(emitter);
+        generation.attach(relay, lastEventId);
+        relay.drain();
+        return emitter;
+    }
+
+    private static StreamRelay relay(RecordingEmitter emitter) {
+        return new StreamRelay(emitter, () -> { }, 256, StreamRelay.OverflowPolicy.COALESCE, 0, 1 << 16);
+    }
+
+    private void publish(int from, int to) {
+        for (int i = from; i <= to; i++) {
+            generation.publish("raw" + i, "e" + i + ";");
+        }
+    }
+
+    private static String expected(int from, int to) {
+        StringBuilder text = new StringBuilder();
+        for (int i = from; i <= to; i++) {
+            text.append('e').append(i).append(';');
+        }
+        return text.toString();
+    }
+}
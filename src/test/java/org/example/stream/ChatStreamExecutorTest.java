@@ -0,0 +1,57 @@
+package org.example.stream;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.exception.ApiException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatStreamExecutorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ChatStreamExecutor executor = new ChatStreamExecutor("platform", 1, 0, 2, meterRegistry);
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void relaysBeyondTheCapAreRejectedAndFreedSlotsAreReused() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(2);
+        Runnable blocking = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        executor.executeRelay(blocking);
+        executor.executeRelay(blocking);
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertEquals(2.0, meterRegistry.get("chat.stream.relays").gauge().value());
+
+        ApiException e = assertThrows(ApiException.class, () -> executor.executeRelay(() -> { }));
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, e.getStatus());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 1000;
+        while (meterRegistry.get("chat.stream.relays").gauge().value() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0.0, meterRegistry.get("chat.stream.relays").gauge().value());
+
+        CountDownLatch ran = new CountDownLatch(1);
+        executor.executeRelay(ran::countDown);
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,34 @@
+package org.example.stream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class EventRingTest {
+
+    @Test
+    void idsStartAtOneAndOldestEventsAreEvicted() {
+        EventRing ring = new EventRing(3);
+        assertNull(ring.append("a"));
+        assertNull(ring.append("b"));
+        assertNull(ring.append("c"));
+        assertEquals(1, ring.firstId());
+
+        assertEquals("a", ring.append("d"));
+        assertEquals("b", ring.append("e"));
+
+        assertEquals(3, ring.firstId());
+        assertEquals(5, ring.lastId());
+        assertEquals("c", ring.get(3));
+        assertEquals("e", ring.get(5));
+    }
+
+    @Test
+    void emptyRingHasNothingToReplay() {
+        EventRing ring = new EventRing(4);
+
+        assertEquals(0, ring.lastId());
+        assertEquals(1, ring.firstId());
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.stream;
+
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps every event sent to it instead of writing to a response.
+ */
+class RecordingEmitter extends SseEmitter {
+
+    record Event(String id, String name, String data) {
+    }
+
+    final List<Event> events = new ArrayList<>();
+    boolean completed;
+    Throwable error;
+    boolean broken;
+
+    @Override
+    public synchronized void send(SseEventBuilder builder) throws IOException {
+        if (broken) {
+            throw new IOException("Broken pipe");
+        }
+        StringBuilder raw = new StringBuilder();
+        for (ResponseBodyEmitter.DataWithMediaType part : builder.build()) {
+            raw.append(part.getData());
+        }
+        String id = null;
+        String name = null;
+        StringBuilder data = new StringBuilder();
+        for (String line : raw.toString().split("\n")) {
+            if (line.startsWith("id:")) {
+                id = line.substring(3);
+            } else if (line.startsWith("event:")) {
+                name = line.substring(6);
+            } else if (line.startsWith("data:")) {
+                data.append(line.substring(5));
+            }
+        }
+        events.add(new Event(id, name, data.toString()));
+    }
+
+    @Override
+    public synchronized void complete() {
+        completed = true;
+    }
+
+    @Override
+    public synchronized void completeWithError(Throwable ex) {
+        error = ex;
+    }
+
+    /**
+     * Data of every delta event, in order, without the closing {@code [DONE]}.
+     */
+    synchronized String text() {
+        StringBuilder text = new StringBuilder();
+        for (Event event : events) {
+            if (event.name() == null && !"[DONE]".equals(event.data())) {
+                text.append(event.data());
+            }
+        }
+        return text.toString();
+    }
+
+    synchronized Event last() {
+        return events.get(events.size() - 1);
+    }
+}
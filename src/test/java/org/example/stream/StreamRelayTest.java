@@ -0,0 +1,137 @@
+package org.example.stream;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamRelayTest {
+
+    private final RecordingEmitter emitter = new RecordingEmitter();
+    private final AtomicBoolean clientGone = new AtomicBoolean();
+
+    @Test
+    void coalesceKeepsEveryDeltaInOrder() {
+        StreamRelay relay = relay(2, StreamRelay.OverflowPolicy.COALESCE);
+        offer(relay, 5);
+        relay.complete();
+
+        relay.drain();
+
+        assertEquals("d1d2d3d4d5", emitter.text());
+        assertEquals("5", emitter.events.get(emitter.events.size() - 2).id());
+        assertEquals("[DONE]", emitter.last().data());
+        assertTrue(emitter.completed);
+    }
+
+    @Test
+    void dropToSummarySendsWhatWasMissedAsOneFrameAtTheEnd() {
+        StreamRelay relay = relay(2, StreamRelay.OverflowPolicy.DROP_TO_SUMMARY);
+        offer(relay, 5);
+        relay.complete();
+
+        relay.drain();
+
+        assertEquals(2, emitter.events.size());
+        assertEquals(new RecordingEmitter.Event("5", null, "d1d2d3d4d5"), emitter.events.get(0));
+        assertEquals("[DONE]", emitter.last().data());
+    }
+
+    @Test
+    void disconnectClosesTheClientButNotTheGeneration() {
+        StreamRelay relay = relay(2, StreamRelay.OverflowPolicy.DISCONNECT);
+        offer(relay, 3);
+
+        relay.drain();
+
+        assertTrue(relay.isDisconnected());
+        assertTrue(emitter.events.isEmpty());
+        assertNotNull(emitter.error);
+        assertFalse(clientGone.get());
+    }
+
+    @Test
+    void replayIsOneFrameAndBypassesTheOverflowPolicy() {
+        StreamRelay relay = relay(2, StreamRelay.OverflowPolicy.DISCONNECT);
+        StringBuilder backlog = new StringBuilder();
+        for (int i = 1; i <= 4096; i++) {
+            backlog.append('x');
+        }
+        relay.replay(4096, backlog.toString());
+        relay.offer(4097, "y");
+        relay.complete();
+
+        relay.drain();
+
+        assertFalse(relay.isDisconnected());
+        assertEquals(backlog + "y", emitter.text());
+        assertEquals("4097", emitter.events.get(emitter.events.size() - 2).id());
+    }
+
+    @Test
+    void queuePositionIsSentUntilTheFirstDelta() {
+        StreamRelay relay = relay(8, StreamRelay.OverflowPolicy.COALESCE);
+        relay.offerQueuePosition(3);
+        relay.offerQueuePosition(2);
+        relay.complete();
+
+        relay.drain();
+
+        assertEquals(new RecordingEmitter.Event(null, "queue", "2"), emitter.events.get(0));
+    }
+
+    @Test
+    void firstDeltaDropsThePendingQueuePosition() {
+        StreamRelay relay = relay(8, StreamRelay.OverflowPolicy.COALESCE);
+        relay.offerQueuePosition(2);
+        relay.offer(1, "d1");
+        relay.complete();
+
+        relay.drain();
+
+        assertNull(emitter.events.get(0).name());
+        assertEquals("d1", emitter.text());
+    }
+
+    @Test
+    void failedWriteReportsTheClientGone() {
+        StreamRelay relay = relay(8, StreamRelay.OverflowPolicy.COALESCE);
+        emitter.broken = true;
+        offer(relay, 1);
+        relay.complete();
+
+        relay.drain();
+
+        assertTrue(clientGone.get());
+        relay.offer(2, "d2");
+    }
+
+    @Test
+    void failureIsPassedToTheEmitterAfterTheQueuedDeltas() {
+        StreamRelay relay = relay(8, StreamRelay.OverflowPolicy.COALESCE);
+        offer(relay, 2);
+        IllegalStateException failure = new IllegalStateException("upstream failed");
+        relay.fail(failure);
+
+        relay.drain();
+
+        assertEquals("d1d2", emitter.text());
+        assertEquals(failure, emitter.error);
+        assertFalse(emitter.completed);
+    }
+
+    private StreamRelay relay(int capacity, StreamRelay.OverflowPolicy policy) {
+        return new StreamRelay(emitter, () -> clientGone.set(true), capacity, policy, 0, 1024);
+    }
+
+    private static void offer(StreamRelay relay, int count) {
+        for (int id = 1; id <= count; id++) {
+            relay.offer(id, "d" + id);
+        }
+    }
+}
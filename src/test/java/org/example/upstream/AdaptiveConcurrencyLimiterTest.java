@@ -0,0 +1,137 @@
+package org.example.upstream;
+
+import org.example.exception.ApiException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    @Test
+    void callsWaitOnceTheLimitIsReached() {
+        AdaptiveConcurrencyLimiter limiter = limiter(2, 4);
+        limiter.reserve("a", 1).await(0);
+        limiter.reserve("a", 1).await(0);
+
+        AdaptiveConcurrencyLimiter.Permit queued = limiter.reserve("b", 1);
+
+        assertEquals(2, limiter.getInFlight());
+        assertEquals(1, limiter.getWaiting());
+        assertThrows(ApiException.class, () -> queued.await(0));
+        assertEquals(0, limiter.getWaiting());
+    }
+
+    @Test
+    void fullQueueIsRejectedRightAway() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 1);
+        limiter.reserve("a", 1);
+        limiter.reserve("a", 1);
+
+        ApiException e = assertThrows(ApiException.class, () -> limiter.reserve("b", 1));
+        assertEquals(503, e.getStatus().value());
+        assertThrows(ApiException.class, () -> limiter.reserveNow("c", 1));
+    }
+
+    @Test
+    void flowWithManyQueuedCallsDoesNotStarveTheOthers() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 10);
+        AdaptiveConcurrencyLimiter.Permit running = limiter.reserve("holder", 1);
+        List<AdaptiveConcurrencyLimiter.Permit> queued = new ArrayList<>();
+        queued.add(limiter.reserve("heavy", 1));
+        queued.add(limiter.reserve("heavy", 1));
+        queued.add(limiter.reserve("heavy", 1));
+        queued.add(limiter.reserve("light", 1));
+
+        assertEquals(List.of("heavy", "light", "heavy", "heavy"), grantOrder(running, queued));
+    }
+
+    @Test
+    void slotsFollowTheFlowWeights() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 10);
+        AdaptiveConcurrencyLimiter.Permit running = limiter.reserve("holder", 1);
+        List<AdaptiveConcurrencyLimiter.Permit> queued = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            queued.add(limiter.reserve("premium", 2));
+        }
+        for (int i = 0; i < 2; i++) {
+            queued.add(limiter.reserve("basic", 1));
+        }
+
+        // 虚拟完成时间：premium 0.5, 1, 1.5, 2；basic 1, 2
+        assertEquals(List.of("premium", "premium", "basic", "premium", "premium", "basic"),
+                grantOrder(running, queued));
+    }
+
+    @Test
+    void limitGrowsAdditivelyAndShrinksMultiplicatively() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 4);
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.reserve("a", 1);
+
+        for (int i = 0; i < 11; i++) {
+            permit.onLatency(100);
+        }
+        assertEquals(11, limiter.getLimit());
+
+        // 超过基线 2 倍算变慢，限额减半
+        permit.onLatency(1_000);
+        assertEquals(5, limiter.getLimit());
+
+        permit.release(true);
+        assertEquals(2, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void limitStaysWithinBounds() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("m", 2, 2, 3, 4, 0.5, 2.0, 1);
+        AdaptiveConcurrencyLimiter.Permit permit = limiter.reserve("a", 1);
+
+        permit.release(true);
+        assertEquals(2, limiter.getLimit());
+
+        AdaptiveConcurrencyLimiter.Permit next = limiter.reserve("a", 1);
+        for (int i = 0; i < 100; i++) {
+            next.onLatency(100);
+        }
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    void releasingAQueuedPermitLeavesTheQueue() {
+        AdaptiveConcurrencyLimiter limiter = limiter(1, 4);
+        limiter.reserve("a", 1);
+        AdaptiveConcurrencyLimiter.Permit queued = limiter.reserve("b", 1);
+
+        queued.release(false);
+        queued.release(false);
+
+        assertEquals(0, limiter.getWaiting());
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    // 每次只放行一个：释放当前占用者，记下拿到名额的是哪个流
+    private static List<String> grantOrder(AdaptiveConcurrencyLimiter.Permit running,
+                                           List<AdaptiveConcurrencyLimiter.Permit> queued) {
+        List<String> order = new ArrayList<>();
+        List<AdaptiveConcurrencyLimiter.Permit> waiting = new ArrayList<>(queued);
+        while (!waiting.isEmpty()) {
+            running.release(false);
+            List<AdaptiveConcurrencyLimiter.Permit> granted = waiting.stream()
+                    .filter(AdaptiveConcurrencyLimiter.Permit::isGranted)
+                    .toList();
+            assertEquals(1, granted.size());
+            running = granted.get(0);
+            waiting.remove(running);
+            order.add(running.getFlow());
+        }
+        return order;
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(int initialLimit, int queueCapacity) {
+        return new AdaptiveConcurrencyLimiter("m", initialLimit, 1, 100, queueCapacity, 0.5, 2.0, 1);
+    }
+}
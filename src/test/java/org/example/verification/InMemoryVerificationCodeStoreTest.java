@@ -0,0 +1,93 @@
+package org.example.verification;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryVerificationCodeStoreTest {
+
+    private static final String EMAIL = "user@example.com";
+    private static final long COOLDOWN = 60_000;
+    private static final long TTL = 1_800_000;
+
+    private final InMemoryVerificationCodeStore store = new InMemoryVerificationCodeStore();
+
+    @Test
+    void codeCannotBeReissuedDuringTheCooldown() {
+        assertTrue(store.issue(EMAIL, "111111", 0, COOLDOWN, TTL));
+        assertFalse(store.issue(EMAIL, "222222", COOLDOWN - 1, COOLDOWN, TTL));
+        assertTrue(store.verify(EMAIL, "111111", COOLDOWN - 1, 5));
+
+        assertTrue(store.issue(EMAIL, "222222", COOLDOWN, COOLDOWN, TTL));
+        assertTrue(store.verify(EMAIL, "222222", COOLDOWN, 5));
+        assertFalse(store.verify(EMAIL, "111111", COOLDOWN, 5));
+    }
+
+    @Test
+    void removingAnOlderCodeKeepsTheNewerOne() {
+        store.issue(EMAIL, "111111", 0, COOLDOWN, TTL);
+        store.issue(EMAIL, "222222", COOLDOWN, COOLDOWN, TTL);
+
+        // 第一封邮件的失败回报来得比第二封还晚
+        store.remove(EMAIL, "111111");
+        assertTrue(store.verify(EMAIL, "222222", COOLDOWN, 5));
+
+        store.remove(EMAIL, "222222");
+        assertFalse(store.verify(EMAIL, "222222", COOLDOWN, 5));
+    }
+
+    @Test
+    void codeStopsMatchingAfterMaxAttempts() {
+        store.issue(EMAIL, "123456", 0, COOLDOWN, TTL);
+
+        assertFalse(store.verify(EMAIL, "000000", 1, 3));
+        assertFalse(store.verify(EMAIL, "000001", 2, 3));
+        assertFalse(store.verify(EMAIL, "000002", 3, 3));
+
+        assertFalse(store.verify(EMAIL, "123456", 4, 3));
+        // 错误次数用完后也不能靠重新发码绕过冷却
+        assertFalse(store.issue(EMAIL, "654321", 5, COOLDOWN, TTL));
+    }
+
+    @Test
+    void expiredCodeDoesNotMatch() {
+        store.issue(EMAIL, "123456", 0, COOLDOWN, TTL);
+
+        assertFalse(store.verify(EMAIL, "123456", TTL, 5));
+        assertFalse(store.verify(EMAIL, null, 1, 5));
+    }
+
+    @Test
+    void removedCodeDoesNotMatch() {
+        store.issue(EMAIL, "123456", 0, COOLDOWN, TTL);
+
+        store.remove(EMAIL);
+
+        assertFalse(store.verify(EMAIL, "123456", 1, 5));
+        assertTrue(store.issue(EMAIL, "654321", 2, COOLDOWN, TTL));
+    }
+
+    @Test
+    void fixedWindowCountsHitsPerKey() {
+        assertTrue(store.tryAcquire("ip:1", 2, 0, 1000));
+        assertTrue(store.tryAcquire("ip:1", 2, 10, 1000));
+        assertFalse(store.tryAcquire("ip:1", 2, 20, 1000));
+        assertTrue(store.tryAcquire("ip:2", 2, 20, 1000));
+
+        assertTrue(store.tryAcquire("ip:1", 2, 1000, 1000));
+    }
+
+    @Test
+    void purgeDropsOnlyExpiredEntries() {
+        store.issue(EMAIL, "123456", 0, COOLDOWN, TTL);
+        store.issue("other@example.com", "123456", TTL, COOLDOWN, TTL);
+        store.tryAcquire("ip:1", 1, 0, 1000);
+
+        store.purgeExpired(TTL);
+
+        assertTrue(store.issue(EMAIL, "654321", TTL, COOLDOWN, TTL));
+        assertFalse(store.issue("other@example.com", "654321", TTL, COOLDOWN, TTL));
+        assertTrue(store.tryAcquire("ip:1", 1, TTL, 1000));
+    }
+}